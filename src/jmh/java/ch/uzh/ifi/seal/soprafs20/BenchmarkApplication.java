@@ -0,0 +1,25 @@
+package ch.uzh.ifi.seal.soprafs20;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * BenchmarkApplication
+ * Starts the whole application against the embedded H2 database for the benchmarks,
+ * on a random port and with logging reduced to warnings so the benchmark output stays readable.
+ * The login rate limits are lifted (a refill time of 0 lets every attempt through), the benchmarks log in far more often.
+ */
+public final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    public static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(Application.class)
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                        "spring.h2.console.enabled=false", "users.login-limit.username-refill-seconds=0",
+                        "users.login-limit.client-refill-seconds=0")
+                .properties(properties)
+                .run();
+    }
+}
@@ -0,0 +1,115 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkApplication;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+
+/**
+ * UserControllerBenchmark
+ * Measures full round-trips through the UserController: request parsing, mapping, service, repository and JSON encoding.
+ * MockMvc is used so the numbers are not dominated by the network stack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserControllerBenchmark {
+
+    private static final String PASSWORD = "difficultPassword";
+
+    private final AtomicLong usernameCounter = new AtomicLong();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ConfigurableApplicationContext context;
+
+    private MockMvc mockMvc;
+
+    private User existingUser;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start();
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+
+        UserService userService = context.getBean(UserService.class);
+        for (int i = 0; i < 100; i++) {
+            userService.createUser(newUser("listedUser" + i));
+        }
+        existingUser = userService.createUser(newUser("existingUser"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public String postUsers() throws Exception {
+        return mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(credentials("user" + usernameCounter.incrementAndGet())))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String getUsers() throws Exception {
+        return mockMvc.perform(get("/users").accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String getUsersPage() throws Exception {
+        return mockMvc.perform(get("/users").param("limit", "20").accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String getUserById() throws Exception {
+        return mockMvc.perform(get("/users/{id}", existingUser.getId()).accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String putLoginLogout() throws Exception {
+        String loginResponse = mockMvc.perform(put("/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(credentials(existingUser.getUsername())))
+                .andReturn().getResponse().getContentAsString();
+        String token = objectMapper.readTree(loginResponse).get("token").asText();
+
+        return mockMvc.perform(put("/logout")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.createObjectNode().put("token", token).toString()))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    private String credentials(String username) {
+        return objectMapper.createObjectNode()
+                .put("username", username)
+                .put("password", PASSWORD)
+                .toString();
+    }
+
+    private static User newUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(PASSWORD);
+        return user;
+    }
+}
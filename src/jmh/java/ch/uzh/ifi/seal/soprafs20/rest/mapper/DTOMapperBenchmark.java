@@ -0,0 +1,66 @@
+package ch.uzh.ifi.seal.soprafs20.rest.mapper;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserEditDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DTOMapperBenchmark
+ * Measures the conversions done by the DTOMapper on every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DTOMapperBenchmark {
+
+    private User user;
+
+    private UserPostDTO userPostDTO;
+
+    private UserEditDTO userEditDTO;
+
+    @Setup
+    public void setup() {
+        user = new User();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setPassword("difficultPassword");
+        user.setStatus(UserStatus.ONLINE);
+        user.setToken("lsker3-3wjls-fancyToken-slkdjf-3rwo8");
+        user.setBirthday(LocalDate.of(1995, 3, 7));
+        user.setCreationDate(LocalDate.of(2020, 3, 1));
+
+        userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("firstname@lastname");
+        userPostDTO.setPassword("difficultPassword");
+
+        userEditDTO = new UserEditDTO();
+        userEditDTO.setId(1L);
+        userEditDTO.setUsername("newUsername");
+        userEditDTO.setBirthday("1995-03-07");
+    }
+
+    @Benchmark
+    public UserGetDTO convertEntityToUserGetDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    }
+
+    @Benchmark
+    public User convertUserPostDTOtoEntity() {
+        return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    }
+
+    @Benchmark
+    public User convertUserEditDTOtoEntity() {
+        return DTOMapper.INSTANCE.convertUserEditDTOtoEntity(userEditDTO);
+    }
+}
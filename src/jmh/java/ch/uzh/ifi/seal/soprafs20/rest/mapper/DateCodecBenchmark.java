@@ -0,0 +1,57 @@
+package ch.uzh.ifi.seal.soprafs20.rest.mapper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DateCodecBenchmark
+ * Compares the DateCodec with the code paths it replaced in the UserService:
+ * a new SimpleDateFormat for every created user and substring concatenation for every edited birthday.
+ * Run with ./gradlew jmh -PjmhIncludes=DateCodecBenchmark -PjmhArgs="-prof gc" to see the allocation rate as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateCodecBenchmark {
+
+    private final DateCodec dateCodec = new DateCodec();
+
+    private final String isoBirthday = "2020-03-07";
+
+    private final LocalDate date = LocalDate.of(2020, 3, 7);
+
+    @Benchmark
+    public String creationDate_legacySimpleDateFormat() {
+        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
+        return formatter.format(new Date());
+    }
+
+    @Benchmark
+    public String creationDate_dateCodec() {
+        return dateCodec.format(LocalDate.now());
+    }
+
+    @Benchmark
+    public String birthday_legacySubstring() {
+        StringBuilder newFormat = new StringBuilder();
+        newFormat.append(isoBirthday.substring(8, 10) + "." + isoBirthday.substring(5, 7) + "." + isoBirthday.substring(0, 4));
+        return newFormat.toString();
+    }
+
+    @Benchmark
+    public LocalDate birthday_dateCodecParse() {
+        return dateCodec.parse(isoBirthday);
+    }
+
+    @Benchmark
+    public String birthday_dateCodecFormat() {
+        return dateCodec.format(date);
+    }
+}
@@ -0,0 +1,75 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkApplication;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LoginCostBenchmark
+ * Measures login + logout throughput of the UserService for different PBKDF2 iteration counts,
+ * which is what decides how many logins per second a node can handle.
+ * Every benchmark thread logs in its own user, run with -t to match the number of hashing threads:
+ * ./gradlew jmh -PjmhIncludes=LoginCostBenchmark -PjmhArgs="-t 4"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class LoginCostBenchmark {
+
+    private static final String PASSWORD = "difficultPassword";
+
+    @Param({"10000", "27500", "100000", "310000"})
+    public int iterations;
+
+    private final AtomicInteger userCounter = new AtomicInteger();
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start("users.password.iterations=" + iterations);
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadUser {
+
+        private String username;
+
+        @Setup(Level.Trial)
+        public void createUser(LoginCostBenchmark benchmark) {
+            username = "loginUser" + benchmark.userCounter.incrementAndGet();
+            benchmark.userService.createUser(credentials(username));
+        }
+    }
+
+    @Benchmark
+    public User loginLogout(ThreadUser threadUser) {
+        User loggedIn = userService.login(credentials(threadUser.username));
+
+        User tokenHolder = new User();
+        tokenHolder.setToken(loggedIn.getToken());
+        return userService.logout(tokenHolder);
+    }
+
+    private static User credentials(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(PASSWORD);
+        return user;
+    }
+}
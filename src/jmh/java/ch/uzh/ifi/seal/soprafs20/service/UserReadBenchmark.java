@@ -0,0 +1,85 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkApplication;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserReadBenchmark
+ * Compares the two ways of answering GET /users: loading managed User entities in a read-write transaction
+ * (how it used to work) against the UserSummary projection in a read-only transaction.
+ * Run it with -prof gc to see the allocation per operation next to the latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserReadBenchmark {
+
+    @Param({"100", "1000"})
+    public int userCount;
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    private UserRepository userRepository;
+
+    private TransactionTemplate readWriteTransaction;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start();
+        userService = context.getBean(UserService.class);
+        userRepository = context.getBean(UserRepository.class);
+        readWriteTransaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        // the passwords are not checked here, so they are stored without hashing to keep the setup fast
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword("password" + i);
+            users.add(user);
+        }
+        userService.createUsers(users);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<UserGetDTO> entities() {
+        return readWriteTransaction.execute(status -> {
+            List<UserGetDTO> userGetDTOs = new ArrayList<>();
+            for (User user : userRepository.findAll()) {
+                userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+            }
+            return userGetDTOs;
+        });
+    }
+
+    @Benchmark
+    public List<UserGetDTO> projections() {
+        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+        for (UserSummary user : userService.getUsers()) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user));
+        }
+        return userGetDTOs;
+    }
+}
@@ -0,0 +1,82 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkApplication;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserServiceBenchmark
+ * Measures the UserService operations against the embedded H2 database, including transactions and flushes.
+ * Login and logout are measured together since a user that is already online cannot log in again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private static final String PASSWORD = "difficultPassword";
+
+    private final AtomicLong usernameCounter = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    private User existingUser;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start();
+        userService = context.getBean(UserService.class);
+        existingUser = userService.createUser(newUser("existingUser"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public User createUser() {
+        return userService.createUser(newUser("user" + usernameCounter.incrementAndGet()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public User loginLogout() {
+        User loggedIn = userService.login(newUser(existingUser.getUsername()));
+
+        User tokenHolder = new User();
+        tokenHolder.setToken(loggedIn.getToken());
+        return userService.logout(tokenHolder);
+    }
+
+    @Benchmark
+    public User edit() {
+        User userToEdit = new User();
+        userToEdit.setId(existingUser.getId());
+        userToEdit.setBirthday(LocalDate.of(1995, 3, 7));
+        return userService.edit(userToEdit);
+    }
+
+    @Benchmark
+    public UserSummary getUserById() {
+        return userService.getUserById(existingUser.getId());
+    }
+
+    private static User newUser(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(PASSWORD);
+        return user;
+    }
+}
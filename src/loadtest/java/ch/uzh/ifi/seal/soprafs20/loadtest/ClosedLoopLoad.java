@@ -0,0 +1,159 @@
+package ch.uzh.ifi.seal.soprafs20.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClosedLoopLoad
+ * Keeps a fixed number of clients busy: every client sends its next request as soon as the previous response arrived.
+ * Latencies (in microseconds) are recorded per endpoint and after the warmup only. Being a closed loop, a slow server
+ * also slows down the clients, so the percentiles are those of the requests that were actually sent,
+ * not of an open arrival rate.
+ */
+final class ClosedLoopLoad {
+
+    /**
+     * One simulated user, asked for its next request whenever the previous one has completed.
+     */
+    interface Client {
+        Call next();
+
+        /**
+         * @param call the call that completed
+         * @param response null if the request failed without a response
+         */
+        default void completed(Call call, HttpResponse<String> response) {
+        }
+    }
+
+    static final class Call {
+        final String endpoint;
+        final HttpRequest request;
+
+        Call(String endpoint, HttpRequest request) {
+            this.endpoint = endpoint;
+            this.request = request;
+        }
+    }
+
+    private final HttpClient httpClient;
+
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private volatile boolean recording;
+
+    ClosedLoopLoad(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * @return the latencies measured after the warmup, per endpoint
+     */
+    Result run(List<? extends Client> clients, Duration warmup, Duration duration) throws InterruptedException {
+        CountDownLatch stopped = new CountDownLatch(clients.size());
+        for (Client client : clients) {
+            send(client, stopped);
+        }
+
+        Thread.sleep(warmup.toMillis());
+        for (Recorder recorder : recorders.values()) {
+            recorder.reset();
+        }
+        errors.clear();
+        recording = true;
+
+        Thread.sleep(duration.toMillis());
+        Map<String, Histogram> histograms = new TreeMap<>();
+        recorders.forEach((endpoint, recorder) -> histograms.put(endpoint, recorder.getIntervalHistogram()));
+        Map<String, Long> errorCounts = new TreeMap<>();
+        errors.forEach((endpoint, count) -> errorCounts.put(endpoint, count.sum()));
+        running.set(false);
+        stopped.await(1, TimeUnit.MINUTES);
+
+        return new Result(histograms, errorCounts, duration);
+    }
+
+    private void send(Client client, CountDownLatch stopped) {
+        ClosedLoopLoad.Call call = client.next();
+        long start = System.nanoTime();
+        httpClient.sendAsync(call.request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, failure) -> {
+            long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            if (recording) {
+                recorders.computeIfAbsent(call.endpoint, endpoint -> new Recorder(TimeUnit.SECONDS.toMicros(60), 3))
+                        .recordValue(Math.min(latencyMicros, TimeUnit.SECONDS.toMicros(60)));
+                if (failure != null || response.statusCode() >= 400) {
+                    errors.computeIfAbsent(call.endpoint, endpoint -> new LongAdder()).increment();
+                }
+            }
+            client.completed(call, failure == null ? response : null);
+
+            if (running.get()) {
+                send(client, stopped);
+            }
+            else {
+                stopped.countDown();
+            }
+        });
+    }
+
+    static final class Result {
+        private final Map<String, Histogram> histograms;
+        private final Map<String, Long> errors;
+        private final Duration duration;
+
+        private Result(Map<String, Histogram> histograms, Map<String, Long> errors, Duration duration) {
+            this.histograms = histograms;
+            this.errors = errors;
+            this.duration = duration;
+        }
+
+        Iterable<String> endpoints() {
+            return histograms.keySet();
+        }
+
+        long count(String endpoint) {
+            Histogram histogram = histograms.get(endpoint);
+            return histogram == null ? 0 : histogram.getTotalCount();
+        }
+
+        long errors(String endpoint) {
+            return errors.getOrDefault(endpoint, 0L);
+        }
+
+        double errorRate(String endpoint) {
+            long count = count(endpoint);
+            return count == 0 ? 0 : errors(endpoint) / (double) count;
+        }
+
+        double throughput(String endpoint) {
+            return count(endpoint) / (duration.toMillis() / 1000.0);
+        }
+
+        double percentileMillis(String endpoint, double percentile) {
+            Histogram histogram = histograms.get(endpoint);
+            return histogram == null ? 0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        double maxMillis(String endpoint) {
+            Histogram histogram = histograms.get(endpoint);
+            return histogram == null ? 0 : histogram.getMaxValue() / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package ch.uzh.ifi.seal.soprafs20.loadtest;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.service.InMemorySessionStore;
+import ch.uzh.ifi.seal.soprafs20.service.PasswordHasher;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClusterSimulation
+ * Runs several nodes of the application in one JVM, behind no load balancer at all: every request of a client goes
+ * to a random node, so there are no sticky sessions. The nodes share one H2 database and one InMemorySessionStore,
+ * which delivers the messages between them after users.cluster.in-memory-latency-ms. Each node has its own caches.
+ * Every client owns a user and repeats:
+ * 1. logs in on two nodes at the same time, exactly one of them must succeed
+ * 2. reads the user on another node until it is ONLINE there
+ * 3. logs out on a random node, which must accept the token
+ * 4. reads the user on another node until it is OFFLINE there
+ * Reported are the latencies, how often a read was stale and how long a change took to show up on another node
+ * (convergence). Broken guarantees (two logins, no login, a rejected logout, a node that never converges) are
+ * counted as violations and make the run fail.
+ * Settings (system properties): nodes, clients, seconds, latencyMs.
+ */
+public final class ClusterSimulation {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String PASSWORD = "password";
+
+    private static final long CONVERGENCE_TIMEOUT_MILLIS = 5000;
+
+    private final List<String> nodeUrls;
+
+    private final HttpClient httpClient;
+
+    private final Map<String, Recorder> latencies = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private ClusterSimulation(List<String> nodeUrls, HttpClient httpClient) {
+        this.nodeUrls = nodeUrls;
+        this.httpClient = httpClient;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = Integer.getInteger("nodes", 4);
+        int clientCount = Integer.getInteger("clients", 32);
+        Duration duration = Duration.ofSeconds(Long.getLong("seconds", 30));
+        long latencyMillis = Long.getLong("latencyMs", 0);
+
+        InMemorySessionStore sessionStore = new InMemorySessionStore(latencyMillis);
+        List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clientCount);
+        int violations;
+        try {
+            List<String> nodeUrls = new ArrayList<>();
+            for (int i = 0; i < nodeCount; i++) {
+                ConfigurableApplicationContext node = startNode(i, sessionStore);
+                nodes.add(node);
+                nodeUrls.add("http://localhost:" + LoadTestApplication.port(node));
+            }
+            List<Long> userIds = createUsers(nodes.get(0), clientCount);
+
+            HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            ClusterSimulation simulation = new ClusterSimulation(nodeUrls, httpClient);
+            long deadline = System.nanoTime() + duration.toNanos();
+
+            List<CompletableFuture<Void>> clients = new ArrayList<>();
+            for (int i = 0; i < clientCount; i++) {
+                String username = "user" + i;
+                Long userId = userIds.get(i);
+                clients.add(CompletableFuture.runAsync(() -> simulation.runClient(username, userId, deadline), clientThreads));
+            }
+            CompletableFuture.allOf(clients.toArray(new CompletableFuture[0])).join();
+
+            System.out.printf("%d nodes, %d clients, %d ms between the nodes%n", nodeCount, clientCount, latencyMillis);
+            violations = simulation.report();
+        }
+        finally {
+            clientThreads.shutdownNow();
+            for (ConfigurableApplicationContext node : nodes) {
+                node.close();
+            }
+            sessionStore.shutdown();
+        }
+        System.exit(violations == 0 ? 0 : 1);
+    }
+
+    /**
+     * Every node gets a copy of ehcache.xml of its own, JCache would otherwise hand all of them the same cache manager
+     * and the nodes would share their second-level caches.
+     */
+    private static ConfigurableApplicationContext startNode(int index, InMemorySessionStore sessionStore) throws IOException {
+        Path cacheConfig = Files.createTempDirectory("node" + index).resolve("ehcache.xml");
+        try (InputStream in = ClusterSimulation.class.getClassLoader().getResourceAsStream("ehcache.xml")) {
+            Files.copy(in, cacheConfig);
+        }
+        cacheConfig.toFile().deleteOnExit();
+
+        return LoadTestApplication.builder(
+                "spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1",
+                "spring.jpa.properties.hibernate.javax.cache.uri=" + cacheConfig.toUri(),
+                "users.cluster.node-id=node" + index)
+                .initializers(context -> context.getBeanFactory().registerSingleton("sessionStore", sessionStore))
+                .run();
+    }
+
+    private static List<Long> createUsers(ConfigurableApplicationContext context, int userCount) {
+        String passwordHash = context.getBean(PasswordHasher.class).hash(PASSWORD);
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword(passwordHash);
+            users.add(user);
+        }
+        context.getBean(UserService.class).createUsers(users);
+
+        List<Long> userIds = new ArrayList<>(userCount);
+        for (User user : users) {
+            userIds.add(user.getId());
+        }
+        return userIds;
+    }
+
+    private void runClient(String username, Long userId, long deadline) {
+        try {
+            while (System.nanoTime() < deadline) {
+                int loginNode = randomNode(-1);
+                String token = racingLogins(username, loginNode, randomNode(loginNode));
+                if (token == null) {
+                    continue;
+                }
+                awaitStatus(userId, "ONLINE", randomNode(loginNode));
+
+                int logoutNode = randomNode(-1);
+                ObjectNode logout = OBJECT_MAPPER.createObjectNode().put("token", token);
+                HttpResponse<String> response = timed("logout", put(logoutNode, "/logout", logout));
+                if (response.statusCode() != 200) {
+                    count("violation: logout rejected");
+                    continue;
+                }
+                awaitStatus(userId, "OFFLINE", randomNode(logoutNode));
+            }
+        }
+        catch (IOException e) {
+            count("error: " + e.getClass().getSimpleName());
+        }
+        catch (CompletionException e) {
+            // a racing login failed without a response
+            count("error: " + e.getCause().getClass().getSimpleName());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the token of the login that succeeded, null if not exactly one did
+     */
+    private String racingLogins(String username, int firstNode, int secondNode) throws IOException {
+        ObjectNode credentials = OBJECT_MAPPER.createObjectNode().put("username", username).put("password", PASSWORD);
+        CompletableFuture<HttpResponse<String>> first = sendAsync(put(firstNode, "/login", credentials));
+        CompletableFuture<HttpResponse<String>> second = sendAsync(put(secondNode, "/login", credentials));
+
+        String token = null;
+        int succeeded = 0;
+        for (HttpResponse<String> response : List.of(first.join(), second.join())) {
+            if (response.statusCode() == 200) {
+                succeeded++;
+                token = OBJECT_MAPPER.readTree(response.body()).get("token").asText();
+            }
+        }
+        if (succeeded != 1) {
+            count(succeeded == 0 ? "violation: no login succeeded" : "violation: logged in twice");
+            return null;
+        }
+        return token;
+    }
+
+    /**
+     * Reads the user on the node until it shows the status, records how long that took.
+     */
+    private void awaitStatus(Long userId, String status, int node) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        boolean stale = false;
+        while (true) {
+            HttpResponse<String> response = timed("get", HttpRequest.newBuilder(URI.create(nodeUrls.get(node) + "/users/" + userId)).GET().build());
+            JsonNode user = OBJECT_MAPPER.readTree(response.body());
+            if (status.equals(user.path("status").asText())) {
+                break;
+            }
+            stale = true;
+            if (System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(CONVERGENCE_TIMEOUT_MILLIS)) {
+                count("violation: not converged");
+                return;
+            }
+            Thread.sleep(1);
+        }
+        count(stale ? "reads: stale" : "reads: up to date");
+        record("convergence", System.nanoTime() - start);
+    }
+
+    private HttpResponse<String> timed(String name, HttpRequest request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        record(name, System.nanoTime() - start);
+        return response;
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, failure) -> record("login", System.nanoTime() - start));
+    }
+
+    private HttpRequest put(int node, String path, ObjectNode body) {
+        return HttpRequest.newBuilder(URI.create(nodeUrls.get(node) + path))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+    }
+
+    /**
+     * @return a random node other than the given one (if there is another one)
+     */
+    private int randomNode(int other) {
+        if (nodeUrls.size() == 1 || other < 0) {
+            return ThreadLocalRandom.current().nextInt(nodeUrls.size());
+        }
+        int node = ThreadLocalRandom.current().nextInt(nodeUrls.size() - 1);
+        return node >= other ? node + 1 : node;
+    }
+
+    private void record(String name, long nanos) {
+        latencies.computeIfAbsent(name, key -> new Recorder(TimeUnit.SECONDS.toMicros(60), 3))
+                .recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), TimeUnit.SECONDS.toMicros(60)));
+    }
+
+    private void count(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return the number of violations
+     */
+    private int report() {
+        System.out.printf("%-12s %10s %10s %10s %10s %10s%n", "", "count", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, Recorder> entry : new TreeMap<>(latencies).entrySet()) {
+            Histogram histogram = entry.getValue().getIntervalHistogram();
+            System.out.printf("%-12s %10d %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(), histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+        }
+
+        int violations = 0;
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            System.out.printf("%-32s %10d%n", entry.getKey(), entry.getValue().sum());
+            if (!entry.getKey().startsWith("reads")) {
+                violations += entry.getValue().intValue();
+            }
+        }
+        return violations;
+    }
+}
@@ -0,0 +1,90 @@
+package ch.uzh.ifi.seal.soprafs20.loadtest;
+
+import ch.uzh.ifi.seal.soprafs20.config.RequestExecutionConfiguration;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ExecutionModeComparison
+ * Compares the request execution modes (users.execution.mode) under GET /users/{id} with 1k and 10k concurrent clients.
+ * The application is started once per mode, the clients run in the same JVM.
+ * Settings (system properties): modes, clients, users, warmupSeconds, measureSeconds.
+ */
+public final class ExecutionModeComparison {
+
+    private ExecutionModeComparison() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = System.getProperty("modes", "sync,async,virtual").split(",");
+        String[] clientCounts = System.getProperty("clients", "1000,10000").split(",");
+        int userCount = Integer.getInteger("users", 1000);
+        Duration warmup = Duration.ofSeconds(Long.getLong("warmupSeconds", 10));
+        Duration duration = Duration.ofSeconds(Long.getLong("measureSeconds", 30));
+
+        ExecutorService clientThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientThreads)
+                .build();
+
+        System.out.printf("%-8s %8s %12s %10s %10s %10s %10s %8s%n",
+                "mode", "clients", "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        try {
+            for (String mode : modes) {
+                try (ConfigurableApplicationContext context = LoadTestApplication.start("users.execution.mode=" + mode)) {
+                    String effectiveMode = context.getBean(RequestExecutionConfiguration.class).getMode().name().toLowerCase();
+                    List<Long> userIds = createUsers(context.getBean(UserService.class), userCount);
+                    String baseUrl = "http://localhost:" + LoadTestApplication.port(context);
+
+                    for (String clientCount : clientCounts) {
+                        List<ClosedLoopLoad.Client> clients = new ArrayList<>();
+                        for (int i = 0; i < Integer.parseInt(clientCount.trim()); i++) {
+                            clients.add(() -> new ClosedLoopLoad.Call("get", HttpRequest.newBuilder(
+                                    URI.create(baseUrl + "/users/" + userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()))))
+                                    .GET().build()));
+                        }
+                        ClosedLoopLoad.Result result = new ClosedLoopLoad(httpClient).run(clients, warmup, duration);
+
+                        System.out.printf("%-8s %8s %12.0f %10.2f %10.2f %10.2f %10.2f %8d%n",
+                                effectiveMode, clientCount.trim(), result.throughput("get"), result.percentileMillis("get", 50),
+                                result.percentileMillis("get", 99), result.percentileMillis("get", 99.9),
+                                result.maxMillis("get"), result.errors("get"));
+                    }
+                }
+            }
+        }
+        finally {
+            clientThreads.shutdownNow();
+        }
+    }
+
+    private static List<Long> createUsers(UserService userService, int userCount) {
+        // the passwords are not checked here, so they are stored without hashing to keep the setup fast
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword("password" + i);
+            users.add(user);
+        }
+        userService.createUsers(users);
+
+        List<Long> userIds = new ArrayList<>(userCount);
+        for (User user : users) {
+            userIds.add(user.getId());
+        }
+        return userIds;
+    }
+}
@@ -0,0 +1,34 @@
+package ch.uzh.ifi.seal.soprafs20.loadtest;
+
+import ch.uzh.ifi.seal.soprafs20.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * LoadTestApplication
+ * Starts the whole application against the embedded H2 database on a random port, with enough connections
+ * for ten thousand clients and without the login rate limits (the load generator logs in from a single address).
+ */
+public final class LoadTestApplication {
+
+    private LoadTestApplication() {
+    }
+
+    public static ConfigurableApplicationContext start(String... properties) {
+        return builder(properties).run();
+    }
+
+    public static SpringApplicationBuilder builder(String... properties) {
+        return new SpringApplicationBuilder(Application.class)
+                .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+                        "spring.h2.console.enabled=false", "server.tomcat.max-connections=20000",
+                        "server.tomcat.accept-count=1000", "users.login-limit.username-refill-seconds=0",
+                        "users.login-limit.client-refill-seconds=0")
+                .properties(properties);
+    }
+
+    public static int port(ConfigurableApplicationContext context) {
+        return ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+}
@@ -0,0 +1,319 @@
+package ch.uzh.ifi.seal.soprafs20.loadtest;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.service.PasswordHasher;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserApiLoadTest
+ * Starts the application against the embedded database and replays a mix of create, login, get, edit and logout calls
+ * from a fixed number of concurrent clients. Prints throughput and latency percentiles per endpoint, writes them to a
+ * CSV report and exits with 1 if one of the configured SLOs has been breached.
+ * The settings are read from loadtest.properties, system properties of the same name take precedence.
+ */
+public final class UserApiLoadTest {
+
+    private static final String PASSWORD = "loadtest-password";
+
+    private static final String[] ENDPOINTS = {"create", "login", "get", "edit", "logout"};
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private UserApiLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties settings = loadSettings();
+        int clientCount = Integer.parseInt(settings.getProperty("loadtest.clients"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(settings.getProperty("loadtest.warmup-seconds")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(settings.getProperty("loadtest.measure-seconds")));
+        Mix mix = new Mix(settings);
+
+        List<String> applicationProperties = new ArrayList<>();
+        for (String name : settings.stringPropertyNames()) {
+            if (name.startsWith("loadtest.app.")) {
+                applicationProperties.add(name.substring("loadtest.app.".length()) + "=" + settings.getProperty(name));
+            }
+        }
+
+        ExecutorService clientThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(clientThreads)
+                .build();
+
+        ClosedLoopLoad.Result result;
+        try (ConfigurableApplicationContext context = LoadTestApplication.start(applicationProperties.toArray(new String[0]))) {
+            List<Long> userIds = createUsers(context, clientCount);
+            String baseUrl = "http://localhost:" + LoadTestApplication.port(context);
+            AtomicLong createdUsers = new AtomicLong();
+
+            List<UserClient> clients = new ArrayList<>(clientCount);
+            for (int i = 0; i < clientCount; i++) {
+                clients.add(new UserClient(baseUrl, userIds.get(i), "user" + i, userIds, mix, createdUsers));
+            }
+            result = new ClosedLoopLoad(httpClient).run(clients, warmup, duration);
+        }
+        finally {
+            clientThreads.shutdownNow();
+        }
+
+        report(result, Paths.get(settings.getProperty("loadtest.report", "loadtest-summary.csv")));
+        List<String> breaches = checkSlos(result, settings);
+        for (String breach : breaches) {
+            System.out.println("SLO breached: " + breach);
+        }
+        System.exit(breaches.isEmpty() ? 0 : 1);
+    }
+
+    private static Properties loadSettings() throws IOException {
+        Properties settings = new Properties();
+        try (InputStream defaults = UserApiLoadTest.class.getResourceAsStream("/loadtest.properties")) {
+            settings.load(defaults);
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("loadtest.")) {
+                settings.setProperty(name, System.getProperty(name));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Creates one user per client. All of them share the same password, so it is hashed only once.
+     */
+    private static List<Long> createUsers(ConfigurableApplicationContext context, int userCount) {
+        String passwordHash = context.getBean(PasswordHasher.class).hash(PASSWORD);
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword(passwordHash);
+            users.add(user);
+        }
+        context.getBean(UserService.class).createUsers(users);
+
+        List<Long> userIds = new ArrayList<>(userCount);
+        for (User user : users) {
+            userIds.add(user.getId());
+        }
+        return userIds;
+    }
+
+    private static void report(ClosedLoopLoad.Result result, Path reportFile) throws IOException {
+        System.out.printf("%-8s %10s %12s %10s %10s %10s %10s %8s%n",
+                "endpoint", "requests", "requests/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (String endpoint : result.endpoints()) {
+            System.out.printf("%-8s %10d %12.1f %10.2f %10.2f %10.2f %10.2f %8d%n",
+                    endpoint, result.count(endpoint), result.throughput(endpoint), result.percentileMillis(endpoint, 50),
+                    result.percentileMillis(endpoint, 99), result.percentileMillis(endpoint, 99.9),
+                    result.maxMillis(endpoint), result.errors(endpoint));
+        }
+
+        if (reportFile.getParent() != null) {
+            Files.createDirectories(reportFile.getParent());
+        }
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8))) {
+            writer.println("endpoint,requests,throughput,p50_ms,p99_ms,p99_9_ms,max_ms,errors");
+            for (String endpoint : result.endpoints()) {
+                writer.printf(Locale.ROOT, "%s,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%d%n",
+                        endpoint, result.count(endpoint), result.throughput(endpoint), result.percentileMillis(endpoint, 50),
+                        result.percentileMillis(endpoint, 99), result.percentileMillis(endpoint, 99.9),
+                        result.maxMillis(endpoint), result.errors(endpoint));
+            }
+        }
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+
+    /**
+     * @return a description of every breached SLO, empty if all of them were met
+     */
+    static List<String> checkSlos(ClosedLoopLoad.Result result, Properties settings) {
+        List<String> breaches = new ArrayList<>();
+        for (String name : settingsStartingWith(settings, "loadtest.slo.").keySet()) {
+            String slo = name.substring("loadtest.slo.".length());
+            String endpointName = slo.substring(0, slo.indexOf('.'));
+            String check = slo.substring(slo.indexOf('.') + 1);
+            double limit = Double.parseDouble(settings.getProperty(name));
+
+            String[] endpoints = "*".equals(endpointName) ? ENDPOINTS : new String[] {endpointName};
+            for (String endpoint : endpoints) {
+                double actual = measured(result, endpoint, check);
+                boolean breached = check.startsWith("min-") ? actual < limit : actual > limit;
+                if (breached) {
+                    breaches.add(String.format("%s %s is %.3f, limit %.3f", endpoint, check, actual, limit));
+                }
+            }
+        }
+        return breaches;
+    }
+
+    private static double measured(ClosedLoopLoad.Result result, String endpoint, String check) {
+        if ("max-error-rate".equals(check)) {
+            return result.errorRate(endpoint);
+        }
+        if ("min-throughput".equals(check)) {
+            return result.throughput(endpoint);
+        }
+        if ("max-ms".equals(check)) {
+            return result.maxMillis(endpoint);
+        }
+        if (check.startsWith("p") && check.endsWith("-ms")) {
+            return result.percentileMillis(endpoint, Double.parseDouble(check.substring(1, check.length() - "-ms".length())));
+        }
+        throw new IllegalArgumentException("Unknown SLO: " + check);
+    }
+
+    private static Map<String, String> settingsStartingWith(Properties settings, String prefix) {
+        Map<String, String> matching = new TreeMap<>();
+        for (String name : settings.stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                matching.put(name, settings.getProperty(name));
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Picks the next call according to the weights in loadtest.mix.
+     */
+    private static final class Mix {
+        private final String[] endpoints = ENDPOINTS;
+        private final int[] cumulativeWeights = new int[ENDPOINTS.length];
+
+        private Mix(Properties settings) {
+            int total = 0;
+            for (int i = 0; i < endpoints.length; i++) {
+                total += Integer.parseInt(settings.getProperty("loadtest.mix." + endpoints[i], "0"));
+                cumulativeWeights[i] = total;
+            }
+            if (total <= 0) {
+                throw new IllegalArgumentException("loadtest.mix needs at least one positive weight");
+            }
+        }
+
+        private String pick() {
+            int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (value < cumulativeWeights[i]) {
+                    return endpoints[i];
+                }
+            }
+            return endpoints[endpoints.length - 1];
+        }
+    }
+
+    /**
+     * A client logged in as a user of its own. Only one of its calls is in flight at a time,
+     * the token is handed from one callback to the next.
+     */
+    private static final class UserClient implements ClosedLoopLoad.Client {
+        private final String baseUrl;
+        private final long userId;
+        private final String username;
+        private final List<Long> userIds;
+        private final Mix mix;
+        private final AtomicLong createdUsers;
+
+        private String token;
+
+        private UserClient(String baseUrl, long userId, String username, List<Long> userIds, Mix mix, AtomicLong createdUsers) {
+            this.baseUrl = baseUrl;
+            this.userId = userId;
+            this.username = username;
+            this.userIds = userIds;
+            this.mix = mix;
+            this.createdUsers = createdUsers;
+        }
+
+        @Override
+        public ClosedLoopLoad.Call next() {
+            String endpoint = mix.pick();
+            if ("login".equals(endpoint) && token != null) {
+                endpoint = "logout";
+            }
+            else if ("logout".equals(endpoint) && token == null) {
+                endpoint = "login";
+            }
+
+            if ("create".equals(endpoint)) {
+                ObjectNode body = OBJECT_MAPPER.createObjectNode()
+                        .put("username", "created" + createdUsers.incrementAndGet())
+                        .put("password", PASSWORD);
+                return new ClosedLoopLoad.Call(endpoint, json("/users").POST(bodyOf(body)).build());
+            }
+            if ("login".equals(endpoint)) {
+                ObjectNode body = OBJECT_MAPPER.createObjectNode().put("username", username).put("password", PASSWORD);
+                return new ClosedLoopLoad.Call(endpoint, json("/login").PUT(bodyOf(body)).build());
+            }
+            if ("logout".equals(endpoint)) {
+                ObjectNode body = OBJECT_MAPPER.createObjectNode().put("token", token);
+                return new ClosedLoopLoad.Call(endpoint, json("/logout").PUT(bodyOf(body)).build());
+            }
+            if ("edit".equals(endpoint)) {
+                LocalDate birthday = LocalDate.of(1970, 1, 1).plusDays(ThreadLocalRandom.current().nextInt(15000));
+                ObjectNode body = OBJECT_MAPPER.createObjectNode()
+                        .put("id", userId)
+                        .put("birthday", birthday.format(DateTimeFormatter.ofPattern("dd.MM.yyyy")));
+                return new ClosedLoopLoad.Call(endpoint, json("/users/" + userId).PUT(bodyOf(body)).build());
+            }
+            long otherUserId = userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+            return new ClosedLoopLoad.Call("get", HttpRequest.newBuilder(URI.create(baseUrl + "/users/" + otherUserId)).GET().build());
+        }
+
+        @Override
+        public void completed(ClosedLoopLoad.Call call, HttpResponse<String> response) {
+            if (response == null) {
+                return;
+            }
+            if ("login".equals(call.endpoint) && response.statusCode() == 200) {
+                try {
+                    token = OBJECT_MAPPER.readTree(response.body()).get("token").asText();
+                }
+                catch (IOException e) {
+                    token = null;
+                }
+            }
+            else if ("logout".equals(call.endpoint)) {
+                // logged out, or the session was gone already
+                token = null;
+            }
+        }
+
+        private HttpRequest.Builder json(String path) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path)).header("Content-Type", "application/json");
+        }
+
+        private static HttpRequest.BodyPublisher bodyOf(ObjectNode body) {
+            return HttpRequest.BodyPublishers.ofString(body.toString());
+        }
+    }
+}
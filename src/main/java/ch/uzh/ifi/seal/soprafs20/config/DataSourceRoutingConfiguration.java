@@ -0,0 +1,82 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.controller.ReadYourWritesFilter;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.servlet.DispatcherType;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DataSource Routing Configuration
+ * Only active when users.datasource.replica-urls lists at least one replica. The primary is configured as usual
+ * (spring.datasource.*), the replicas share its credentials and Hikari settings (spring.datasource.hikari.*).
+ * Read-only transactions (the GET endpoints) go to the replicas, balanced with users.datasource.replica-balancing
+ * (round-robin or least-loaded), everything else goes to the primary.
+ * A client that wrote reads from the primary for users.datasource.read-your-writes-ms afterwards.
+ * Replication itself is up to the database, the application only decides where to read.
+ */
+@Configuration
+@ConditionalOnProperty("users.datasource.replica-urls")
+public class DataSourceRoutingConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties properties, Environment environment,
+                                                             @Value("${users.datasource.replica-urls}") List<String> replicaUrls,
+                                                             @Value("${users.datasource.replica-balancing:round-robin}") String balancing) {
+        HikariDataSource primary = hikari(properties, environment, properties.determineUrl(), "primary");
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String replicaUrl : replicaUrls) {
+            if (!replicaUrl.isBlank()) {
+                replicas.add(hikari(properties, environment, replicaUrl.trim(), "replica-" + replicas.size()));
+            }
+        }
+        if (replicas.isEmpty()) {
+            throw new IllegalStateException("users.datasource.replica-urls does not contain a replica");
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, ReplicaRoutingDataSource.Balancing.of(balancing));
+    }
+
+    /**
+     * The DataSource used by JPA, Flyway and the rest of the application. The connection is only fetched from the
+     * router when the first statement runs, by then the transaction has been marked read-only or not.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(@Value("${users.datasource.read-your-writes-ms:2000}") long windowMillis) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration = new FilterRegistrationBean<>(new ReadYourWritesFilter(windowMillis));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        registration.setAsyncSupported(true);
+        // in the async execution mode the controller runs in the dispatch from the executor, see RequestExecutionFilter
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        return registration;
+    }
+
+    private static HikariDataSource hikari(DataSourceProperties properties, Environment environment, String url, String poolName) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .url(url)
+                .build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName(poolName);
+        return dataSource;
+    }
+}
@@ -0,0 +1,60 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.service.DatabaseConcurrencyLimiter;
+import org.springframework.http.HttpStatus;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Limited Jpa Transaction Manager
+ * This class takes a permit of the DatabaseConcurrencyLimiter for every new transaction and gives it back once the
+ * transaction has completed, so only the work with the database waits for a permit: password hashing, serialization
+ * or requests that never open a transaction (e.g. the online count) pass without one.
+ * Transactions that join an existing one do not take a second permit.
+ */
+public class LimitedJpaTransactionManager extends JpaTransactionManager {
+
+    private final DatabaseConcurrencyLimiter databaseConcurrencyLimiter;
+
+    public LimitedJpaTransactionManager(DatabaseConcurrencyLimiter databaseConcurrencyLimiter) {
+        this.databaseConcurrencyLimiter = databaseConcurrencyLimiter;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        acquire();
+        try {
+            super.doBegin(transaction, definition);
+        }
+        catch (RuntimeException | Error e) {
+            // doCleanupAfterCompletion is only called for transactions that have begun
+            databaseConcurrencyLimiter.release();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        try {
+            super.doCleanupAfterCompletion(transaction);
+        }
+        finally {
+            databaseConcurrencyLimiter.release();
+        }
+    }
+
+    private void acquire() {
+        boolean acquired;
+        try {
+            acquired = databaseConcurrencyLimiter.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The database is busy, try again later!");
+        }
+    }
+}
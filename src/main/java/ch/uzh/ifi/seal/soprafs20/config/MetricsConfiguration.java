@@ -0,0 +1,163 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import ch.uzh.ifi.seal.soprafs20.service.ClusterSessions;
+import ch.uzh.ifi.seal.soprafs20.service.DatabaseConcurrencyLimiter;
+import ch.uzh.ifi.seal.soprafs20.service.LoginRateLimiter;
+import ch.uzh.ifi.seal.soprafs20.service.PasswordHasher;
+import ch.uzh.ifi.seal.soprafs20.service.PresenceBroadcaster;
+import ch.uzh.ifi.seal.soprafs20.service.PresenceRegistry;
+import ch.uzh.ifi.seal.soprafs20.service.SessionCache;
+import ch.uzh.ifi.seal.soprafs20.service.SessionReaper;
+import ch.uzh.ifi.seal.soprafs20.service.SessionStore;
+import ch.uzh.ifi.seal.soprafs20.service.SessionTokens;
+import ch.uzh.ifi.seal.soprafs20.service.SingleFlight;
+import ch.uzh.ifi.seal.soprafs20.service.StatusWriteBehind;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import ch.uzh.ifi.seal.soprafs20.service.UsernameIndex;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics Configuration
+ * Registers the aspect behind @Timed and the meters of our own in-memory components.
+ * Request timers (http.server.requests), Hikari pool and Hibernate statistics meters are registered by Spring Boot,
+ * everything is scraped from /actuator/prometheus.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    @Bean
+    public MeterBinder sessionCacheMetrics(SessionCache sessionCache) {
+        return registry -> {
+            FunctionCounter.builder("user.session.cache.requests", sessionCache, SessionCache::getHitCount)
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("user.session.cache.requests", sessionCache, SessionCache::getMissCount)
+                    .tag("result", "miss").register(registry);
+            FunctionCounter.builder("user.session.cache.evictions", sessionCache, SessionCache::getEvictionCount)
+                    .register(registry);
+            Gauge.builder("user.session.cache.size", sessionCache, SessionCache::size)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder passwordHasherMetrics(PasswordHasher passwordHasher) {
+        return registry -> Gauge.builder("user.password.hashing.queue", passwordHasher, PasswordHasher::getQueuedTasks)
+                .register(registry);
+    }
+
+    @Bean
+    public MeterBinder presenceMetrics(PresenceBroadcaster presenceBroadcaster, PresenceRegistry presenceRegistry) {
+        return registry -> {
+            Gauge.builder("user.presence.subscribers", presenceBroadcaster, PresenceBroadcaster::getSubscriberCount)
+                    .register(registry);
+            Gauge.builder("user.presence.online", presenceRegistry, PresenceRegistry::countOnline)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder statusWriteBehindMetrics(StatusWriteBehind statusWriteBehind) {
+        return registry -> Gauge.builder("user.status.staged", statusWriteBehind, StatusWriteBehind::getStagedCount)
+                .register(registry);
+    }
+
+    @Bean
+    public MeterBinder sessionReaperMetrics(SessionReaper sessionReaper) {
+        return registry -> {
+            FunctionTimer.builder("user.session.reaper", sessionReaper, SessionReaper::getRunCount,
+                    reaper -> reaper.getRunTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)
+                    .register(registry);
+            FunctionCounter.builder("user.session.reaped", sessionReaper, SessionReaper::getReapedCount)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder loginRateLimiterMetrics(LoginRateLimiter loginRateLimiter) {
+        return registry -> {
+            FunctionCounter.builder("user.login.rejected", loginRateLimiter, LoginRateLimiter::getUsernameRejectedCount)
+                    .tag("limit", "username").register(registry);
+            FunctionCounter.builder("user.login.rejected", loginRateLimiter, LoginRateLimiter::getClientRejectedCount)
+                    .tag("limit", "client").register(registry);
+            Gauge.builder("user.login.limiter.size", loginRateLimiter, LoginRateLimiter::size)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder databaseConcurrencyLimiterMetrics(DatabaseConcurrencyLimiter databaseConcurrencyLimiter) {
+        return registry -> {
+            Gauge.builder("user.database.limiter.active", databaseConcurrencyLimiter, DatabaseConcurrencyLimiter::getActiveCount)
+                    .register(registry);
+            Gauge.builder("user.database.limiter.waiting", databaseConcurrencyLimiter, DatabaseConcurrencyLimiter::getWaitingCount)
+                    .register(registry);
+            FunctionCounter.builder("user.database.limiter.rejected", databaseConcurrencyLimiter, DatabaseConcurrencyLimiter::getRejectedCount)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder userLoadMetrics(UserService userService) {
+        SingleFlight<Long, UserSummary> userLoads = userService.getUserLoads();
+        return registry -> {
+            FunctionCounter.builder("user.lookup.requests", userLoads, SingleFlight::getLoadCount)
+                    .tag("result", "loaded").register(registry);
+            FunctionCounter.builder("user.lookup.requests", userLoads, SingleFlight::getSharedCount)
+                    .tag("result", "shared").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder usernameIndexMetrics(UsernameIndex usernameIndex) {
+        return registry -> Gauge.builder("user.search.index.size", usernameIndex, UsernameIndex::size)
+                .register(registry);
+    }
+
+    @Bean
+    public MeterBinder sessionTokensMetrics(SessionTokens sessionTokens) {
+        return registry -> {
+            Gauge.builder("user.token.revocations", sessionTokens, SessionTokens::getRevocationCount)
+                    .register(registry);
+            FunctionCounter.builder("user.token.rejected", sessionTokens, SessionTokens::getRejectedCount)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder clusterSessionsMetrics(ClusterSessions clusterSessions, SessionStore sessionStore) {
+        return registry -> {
+            Gauge.builder("user.cluster.sessions", sessionStore, SessionStore::size)
+                    .register(registry);
+            FunctionCounter.builder("user.cluster.events.received", clusterSessions, ClusterSessions::getReceivedCount)
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder replicaRoutingMetrics(ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource) {
+        // only there when replicas are configured, see DataSourceRoutingConfiguration
+        return registry -> replicaRoutingDataSource.ifAvailable(router -> {
+            for (String target : router.getTargets()) {
+                FunctionCounter.builder("user.datasource.connections", router, r -> r.getConnectionCount(target))
+                        .tag("target", target)
+                        .register(registry);
+            }
+        });
+    }
+}
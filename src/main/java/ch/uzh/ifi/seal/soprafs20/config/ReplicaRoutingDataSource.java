@@ -0,0 +1,156 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.controller.ReadYourWritesFilter;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replica Routing DataSource
+ * Hands out connections of a replica to read-only transactions and connections of the primary to everything else.
+ * Requests that wrote shortly before (see ReadYourWritesFilter) keep reading from the primary, so they see their
+ * own writes however far the replicas lag behind.
+ * The replica is picked round robin, or the one with the fewest connections in use (least-loaded).
+ * Callers that must not act on an outdated row ask isReadingFromReplica() after their query.
+ * The transaction has to be known when the connection is fetched, which is why the DataSource used by JPA is
+ * a LazyConnectionDataSourceProxy around this one, see DataSourceRoutingConfiguration.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Balancing {
+        ROUND_ROBIN, LEAST_LOADED;
+
+        public static Balancing of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    static final String PRIMARY = "primary";
+
+    // bound to the transaction while it reads from a replica
+    private static final Object REPLICA_READ = new Object();
+
+    private final HikariDataSource primary;
+
+    private final List<HikariDataSource> replicas;
+
+    private final List<String> replicaKeys = new ArrayList<>();
+
+    private final Balancing balancing;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Map<String, LongAdder> connections = new HashMap<>();
+
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, Balancing balancing) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.balancing = balancing;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        connections.put(PRIMARY, new LongAdder());
+        for (int i = 0; i < replicas.size(); i++) {
+            String key = "replica-" + i;
+            replicaKeys.add(key);
+            targets.put(key, replicas.get(i));
+            connections.put(key, new LongAdder());
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String key;
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || ReadYourWritesFilter.isPinnedToPrimary()) {
+            ReadYourWritesFilter.onPrimaryConnection();
+            key = PRIMARY;
+        }
+        else {
+            key = replicaKeys.get(balancing == Balancing.LEAST_LOADED ? leastLoaded() : roundRobin());
+            markReplicaRead();
+        }
+        connections.get(key).increment();
+        return key;
+    }
+
+    /**
+     * @return true if the current transaction reads from a replica, which may lag behind the primary; false without
+     * replicas, for write transactions and for requests pinned to the primary
+     */
+    public static boolean isReadingFromReplica() {
+        return TransactionSynchronizationManager.hasResource(REPLICA_READ);
+    }
+
+    /**
+     * @return the target names, primary and replica-0, replica-1, ...
+     */
+    public List<String> getTargets() {
+        List<String> targets = new ArrayList<>();
+        targets.add(PRIMARY);
+        targets.addAll(replicaKeys);
+        return targets;
+    }
+
+    public long getConnectionCount(String target) {
+        return connections.get(target).sum();
+    }
+
+    public void close() {
+        primary.close();
+        for (HikariDataSource replica : replicas) {
+            replica.close();
+        }
+    }
+
+    private static void markReplicaRead() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(REPLICA_READ)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(REPLICA_READ, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+            }
+        });
+    }
+
+    private int roundRobin() {
+        return Math.floorMod(next.getAndIncrement(), replicas.size());
+    }
+
+    private int leastLoaded() {
+        // starts at a different replica every time, so equally loaded replicas take turns
+        int start = roundRobin();
+        int best = start;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < replicas.size(); i++) {
+            int candidate = (start + i) % replicas.size();
+            int load = load(replicas.get(candidate));
+            if (load < bestLoad) {
+                best = candidate;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private static int load(HikariDataSource replica) {
+        HikariPoolMXBean pool = replica.getHikariPoolMXBean();
+        // the pool is only started with the first connection
+        return pool == null ? 0 : pool.getActiveConnections() + pool.getThreadsAwaitingConnection();
+    }
+}
@@ -0,0 +1,137 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.controller.RequestExecutionFilter;
+import ch.uzh.ifi.seal.soprafs20.service.DatabaseConcurrencyLimiter;
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.DispatcherType;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request Execution Configuration
+ * Selects how requests are executed (users.execution.mode):
+ * sync    - on Tomcat's worker pool, every request holds a worker while it waits for the database (the default)
+ * async   - the Tomcat worker hands the request to a bounded executor and goes back to accepting connections
+ * virtual - every request runs on a virtual thread of its own. They only exist from Java 21 on, on older runtimes
+ *           this mode falls back to async.
+ * Except for sync, every transaction waits for a permit of the DatabaseConcurrencyLimiter,
+ * see LimitedJpaTransactionManager.
+ */
+@Configuration
+public class RequestExecutionConfiguration {
+
+    public enum Mode {
+        SYNC, ASYNC, VIRTUAL
+    }
+
+    private final Logger log = LoggerFactory.getLogger(RequestExecutionConfiguration.class);
+
+    private final Mode mode;
+
+    private final ExecutorService executor;
+
+    public RequestExecutionConfiguration(@Value("${users.execution.mode:sync}") String mode,
+                                         @Value("${users.execution.async-threads:64}") int asyncThreads,
+                                         @Value("${users.execution.async-queue-size:10000}") int asyncQueueSize) {
+        Mode requestedMode = Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+        ExecutorService virtualThreads = requestedMode == Mode.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+
+        if (requestedMode == Mode.VIRTUAL && virtualThreads == null) {
+            log.warn("Virtual threads are not available on Java {}, falling back to the async execution mode",
+                    Runtime.version().feature());
+            requestedMode = Mode.ASYNC;
+        }
+        this.mode = requestedMode;
+
+        if (this.mode == Mode.VIRTUAL) {
+            this.executor = virtualThreads;
+        }
+        else if (this.mode == Mode.ASYNC) {
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(asyncQueueSize), runnable -> {
+                        Thread thread = new Thread(runnable, "request-async-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        else {
+            this.executor = null;
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<AbstractProtocol<?>> requestThreadsCustomizer() {
+        return protocolHandler -> {
+            if (mode == Mode.VIRTUAL) {
+                protocolHandler.setExecutor(executor);
+            }
+        };
+    }
+
+    // replaces the JpaTransactionManager of JpaBaseConfiguration
+    @Bean
+    public PlatformTransactionManager transactionManager(DatabaseConcurrencyLimiter databaseConcurrencyLimiter,
+            ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+        // sync mode is bounded by Tomcat's worker pool already
+        JpaTransactionManager transactionManager = mode == Mode.SYNC
+                ? new JpaTransactionManager() : new LimitedJpaTransactionManager(databaseConcurrencyLimiter);
+        transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+        return transactionManager;
+    }
+
+    @Bean
+    public FilterRegistrationBean<RequestExecutionFilter> requestExecutionFilter(
+            @Value("${users.execution.async-timeout-ms:30000}") long asyncTimeoutMillis) {
+        RequestExecutionFilter filter = new RequestExecutionFilter(executor, asyncTimeoutMillis);
+
+        FilterRegistrationBean<RequestExecutionFilter> registration = new FilterRegistrationBean<>(filter);
+        // the last filter before the DispatcherServlet: the others have run by the time the request goes async,
+        // those that have to see the dispatch from the executor (e.g. the ReadYourWritesFilter) run for it again
+        registration.setOrder(Ordered.LOWEST_PRECEDENCE);
+        registration.setAsyncSupported(true);
+        registration.setDispatcherTypes(DispatcherType.REQUEST);
+        // on virtual threads the request stays where it is
+        registration.setEnabled(mode == Mode.ASYNC);
+        return registration;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.service.InMemorySessionStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Session Store Configuration
+ * Provides the in-memory SessionStore while users.cluster.session-store is in-memory (the default). A deployment that
+ * defines a SessionStore bean shared by several nodes sets the property to another value, e.g. shared, so the two
+ * beans never meet, whatever order the configuration classes are processed in.
+ * users.cluster.in-memory-latency-ms delays the messages between nodes, to see how the nodes behave
+ * when they learn about each other's changes late.
+ */
+@Configuration
+public class SessionStoreConfiguration {
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "users.cluster.session-store", havingValue = "in-memory", matchIfMissing = true)
+    public InMemorySessionStore sessionStore(@Value("${users.cluster.in-memory-latency-ms:0}") long latencyMillis) {
+        return new InMemorySessionStore(latencyMillis);
+    }
+}
@@ -0,0 +1,42 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.FieldSelection;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Web Configuration
+ * Adds CBOR (application/cbor) next to JSON: clients that send Accept: application/cbor get the same documents in
+ * the compact binary encoding, and can send their request bodies in it as well. JSON stays the default.
+ * The CBOR ObjectMapper is built from Spring Boot's builder, so both encodings share modules, date handling
+ * and the default filter of FieldSelection. Gzip compression of large responses is set up in application.properties.
+ */
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    public WebConfiguration(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        this.objectMapperBuilder = objectMapperBuilder;
+    }
+
+    // static, the builder injected above already has to be customized by it
+    @Bean
+    public static Jackson2ObjectMapperBuilderCustomizer fieldSelectionCustomizer() {
+        return builder -> builder.filters(FieldSelection.SERIALIZE_ALL);
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new MappingJackson2CborHttpMessageConverter(
+                objectMapperBuilder.createXmlMapper(false).factory(new CBORFactory()).build()));
+    }
+}
@@ -0,0 +1,125 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read Your Writes Filter
+ * Keeps a client reading from the primary for a while after it wrote, so it does not read an older state from
+ * a replica that has not caught up yet. When a write transaction of a request commits, the response gets a cookie
+ * with the time until which the client's requests stay on the primary (users.datasource.read-your-writes-ms).
+ * The cookie is all the state there is, so it works on every node, whichever one handled the write. Since the
+ * client could set it to any time, a cookie further in the future than one window from now is ignored.
+ * Later read-only transactions of the writing request itself stay on the primary as well.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE = "users-primary-until";
+
+    private static final ThreadLocal<Context> CURRENT = new ThreadLocal<>();
+
+    private final long windowMillis;
+
+    public ReadYourWritesFilter(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return true if the current request has to read from the primary
+     */
+    public static boolean isPinnedToPrimary() {
+        Context context = CURRENT.get();
+        return context != null && context.pinned;
+    }
+
+    /**
+     * Called whenever the primary hands out a connection. If that happens for a write transaction of a request,
+     * the request is pinned to the primary once the transaction has been committed.
+     */
+    public static void onPrimaryConnection() {
+        Context context = CURRENT.get();
+        if (context == null || context.writing || !TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return;
+        }
+        context.writing = true;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                context.pinned = true;
+                context.wrote.run();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                context.writing = false;
+            }
+        });
+    }
+
+    // the request may be handled in an async dispatch, which runs on another thread, see RequestExecutionFilter
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long now = System.currentTimeMillis();
+        long pinnedUntil = pinnedUntil(request);
+        Context context = new Context(pinnedUntil > now && pinnedUntil <= now + windowMillis, () -> {
+            // set before the body is written, the transaction commits inside the service call
+            Cookie cookie = new Cookie(COOKIE, String.valueOf(System.currentTimeMillis() + windowMillis));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(windowMillis + 999)));
+            response.addCookie(cookie);
+        });
+
+        CURRENT.set(context);
+        try {
+            filterChain.doFilter(request, response);
+        }
+        finally {
+            CURRENT.remove();
+        }
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return 0;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                }
+                catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static final class Context {
+        private volatile boolean pinned;
+        private boolean writing;
+        private final Runnable wrote;
+
+        private Context(boolean pinned, Runnable wrote) {
+            this.pinned = pinned;
+            this.wrote = wrote;
+        }
+    }
+}
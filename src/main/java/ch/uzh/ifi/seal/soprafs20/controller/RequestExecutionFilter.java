@@ -0,0 +1,81 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Request Execution Filter
+ * Puts the request into async mode and hands it to the executor, the Tomcat worker is released right away.
+ * The executor dispatches the request back to the container in the order of its queue; once the queue is full,
+ * requests are answered with 503. The chain itself only ever runs inside a container dispatch, the executor never
+ * touches it. The database permits are not taken here but per transaction, see LimitedJpaTransactionManager.
+ * The event stream is left alone, it holds its request open for as long as the client listens.
+ */
+public class RequestExecutionFilter extends OncePerRequestFilter {
+
+    private final Logger log = LoggerFactory.getLogger(RequestExecutionFilter.class);
+
+    private final Executor executor;
+
+    private final long asyncTimeoutMillis;
+
+    public RequestExecutionFilter(Executor executor, long asyncTimeoutMillis) {
+        this.executor = executor;
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().endsWith("/users/events");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(asyncTimeoutMillis);
+        try {
+            executor.execute(() -> dispatch(asyncContext));
+        }
+        catch (RejectedExecutionException e) {
+            // the queue of the executor is full
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            sendErrorQuietly(response, HttpStatus.SERVICE_UNAVAILABLE, null);
+            asyncContext.complete();
+        }
+    }
+
+    private void dispatch(AsyncContext asyncContext) {
+        try {
+            asyncContext.dispatch();
+        }
+        catch (IllegalStateException e) {
+            // the request has timed out or failed in the meantime, the container has already answered it
+            log.debug("Request could not be dispatched", e);
+        }
+    }
+
+    private static void sendErrorQuietly(HttpServletResponse response, HttpStatus status, String message) {
+        if (response.isCommitted()) {
+            return;
+        }
+        try {
+            response.sendError(status.value(), message);
+        }
+        catch (IOException ignored) {
+            // the client is gone
+        }
+    }
+}
@@ -1,17 +1,43 @@
 package ch.uzh.ifi.seal.soprafs20.controller;
 
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserEditDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserLoginDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserImportResultDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserTokenDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.FieldSelection;
+import ch.uzh.ifi.seal.soprafs20.service.LoginRateLimiter;
+import ch.uzh.ifi.seal.soprafs20.service.PresenceBroadcaster;
+import ch.uzh.ifi.seal.soprafs20.service.UserImportReport;
+import ch.uzh.ifi.seal.soprafs20.service.UserImportService;
 import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import ch.uzh.ifi.seal.soprafs20.service.UserVersionTracker;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User Controller
@@ -21,26 +47,186 @@ import java.util.List;
 @RestController
 public class UserController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    static final MediaType APPLICATION_CBOR = MediaType.parseMediaType("application/cbor");
+
     private final UserService userService;
 
-    UserController(UserService userService) {
+    private final UserImportService userImportService;
+
+    private final PresenceBroadcaster presenceBroadcaster;
+
+    private final UserVersionTracker userVersionTracker;
+
+    private final LoginRateLimiter loginRateLimiter;
+
+    private final ObjectMapper objectMapper;
+
+    UserController(UserService userService, UserImportService userImportService,
+                   PresenceBroadcaster presenceBroadcaster, UserVersionTracker userVersionTracker,
+                   LoginRateLimiter loginRateLimiter, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.userImportService = userImportService;
+        this.presenceBroadcaster = presenceBroadcaster;
+        this.userVersionTracker = userVersionTracker;
+        this.loginRateLimiter = loginRateLimiter;
+        this.objectMapper = objectMapper;
     }
 
 
     @GetMapping("/users")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetDTO> getAllUsers() {
+    public MappingJacksonValue getAllUsers(@RequestParam(value = "fields", required = false) String fields,
+                                           WebRequest webRequest, HttpServletResponse response) {
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+
+        // nothing changed since the client's copy -> 304 without loading a single user
+        if (webRequest.checkNotModified(representationETag(userVersionTracker.getCollectionETag(), webRequest, response))) {
+            return null;
+        }
+
         // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
+        List<UserSummary> users = userService.getUsers();
         List<UserGetDTO> userGetDTOs = new ArrayList<>();
 
         // convert each user to the API representation
-        for (User user : users) {
-            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        for (UserSummary user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user, fieldSelection));
+        }
+        return fieldSelection.wrap(userGetDTOs);
+    }
+
+    @GetMapping(value = "/users", params = "limit")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public MappingJacksonValue getUsersPage(@RequestParam(value = "after", required = false) Long after,
+                                            @RequestParam("limit") Integer limit,
+                                            @RequestParam(value = "fields", required = false) String fields,
+                                            WebRequest webRequest, HttpServletResponse response) {
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+
+        // every page of the list shares the ETag of the whole list
+        if (webRequest.checkNotModified(representationETag(userVersionTracker.getCollectionETag(), webRequest, response))) {
+            return null;
+        }
+
+        // fetch one page of users, ordered by id and starting right after the given cursor
+        List<UserSummary> users = userService.getUsersAfter(after, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+
+        for (UserSummary user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user, fieldSelection));
+        }
+
+        // hand out the cursor for the next request, an empty page marks the end
+        if (!users.isEmpty()) {
+            response.setHeader(NEXT_CURSOR_HEADER, String.valueOf(users.get(users.size() - 1).getId()));
         }
-        return userGetDTOs;
+        return fieldSelection.wrap(userGetDTOs);
+    }
+
+    @GetMapping(value = "/users", params = "ids")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public MappingJacksonValue getUsersByIds(@RequestParam("ids") List<Long> ids,
+                                             @RequestParam(value = "fields", required = false) String fields,
+                                             WebRequest webRequest, HttpServletResponse response) {
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+
+        // any subset of the list shares the ETag of the whole list
+        if (webRequest.checkNotModified(representationETag(userVersionTracker.getCollectionETag(), webRequest, response))) {
+            return null;
+        }
+
+        // one request and one query for all the users a client needs, e.g. the participants of a game
+        List<UserSummary> users = userService.getUsersByIds(ids);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+
+        for (UserSummary user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user, fieldSelection));
+        }
+        return fieldSelection.wrap(userGetDTOs);
+    }
+
+    @GetMapping("/users/online")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public MappingJacksonValue getOnlineUsers(@RequestParam(value = "after", required = false) Long after,
+                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                              @RequestParam(value = "fields", required = false) String fields,
+                                              HttpServletResponse response) {
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+
+        // the online users are paged like GET /users?limit, the ids come from memory instead of a table scan
+        List<UserSummary> users = userService.getOnlineUsersAfter(after, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+
+        for (UserSummary user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user, fieldSelection));
+        }
+
+        if (!users.isEmpty()) {
+            response.setHeader(NEXT_CURSOR_HEADER, String.valueOf(users.get(users.size() - 1).getId()));
+        }
+        return fieldSelection.wrap(userGetDTOs);
+    }
+
+    @GetMapping("/users/online/count")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public int countOnlineUsers() {
+        return userService.countOnlineUsers();
+    }
+
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public MappingJacksonValue searchUsers(@RequestParam("prefix") String prefix,
+                                           @RequestParam(value = "limit", required = false) Integer limit,
+                                           @RequestParam(value = "fields", required = false) String fields) {
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+
+        // autocomplete: the first users whose username starts with the prefix, ordered by username
+        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+        for (UserSummary user : userService.searchUsers(prefix, limit)) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user, fieldSelection));
+        }
+        return fieldSelection.wrap(userGetDTOs);
+    }
+
+    @GetMapping(value = "/users", params = "stream=true")
+    public void streamAllUsers(@RequestParam(value = "fields", required = false) String fields,
+                               HttpServletResponse response) throws IOException {
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+        ObjectWriter writer = objectMapper.writer(fieldSelection.filters());
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+
+        // write the JSON array one user at a time instead of building the whole list in memory
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            userService.streamUsers(user -> {
+                try {
+                    writer.writeValue(generator, DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(user, fieldSelection));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamPresenceEvents(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                           @RequestParam(value = "since", required = false) String since) {
+        // browsers send Last-Event-ID when they reconnect, other clients can pass the event id as parameter
+        return presenceBroadcaster.subscribe(lastEventId != null ? lastEventId : since);
     }
 
     @PostMapping("/users")
@@ -57,27 +243,76 @@ public class UserController {
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
     }
 
+    @PostMapping(value = "/users/import", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserImportResultDTO importUsers(HttpServletRequest request) throws IOException {
+        // accepts a JSON array as well as newline delimited JSON, the body is read one user at a time
+        try (MappingIterator<UserPostDTO> userPostDTOs = objectMapper.readerFor(UserPostDTO.class).readValues(request.getInputStream())) {
+            Iterator<User> users = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return userPostDTOs.hasNext();
+                }
+
+                @Override
+                public User next() {
+                    return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTOs.next());
+                }
+            };
+            UserImportReport report = userImportService.importUsers(users);
+
+            return DTOMapper.INSTANCE.convertUserImportReportToUserImportResultDTO(report);
+        }
+    }
+
     @PutMapping("/login")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO login(@RequestBody UserPostDTO userPostDTO) {
+    public UserLoginDTO login(@RequestBody UserPostDTO userPostDTO, HttpServletRequest request, HttpServletResponse response) {
+        // too many attempts for this username or from this client -> 429 before the database is asked
+        long waitNanos = loginRateLimiter.tryAcquire(userPostDTO.getUsername(), request.getRemoteAddr());
+        if (waitNanos > 0) {
+            // rounded up to whole seconds
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1));
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many login attempts, try again later!");
+        }
+
         // convert API user to internal representation
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
 
         // login user
         User loggedInUser = userService.login(userInput);
 
-        // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedInUser);
+        // convert internal representation of user back to API, with the token of the new session
+        return DTOMapper.INSTANCE.convertEntityToUserLoginDTO(loggedInUser);
     }
 
     @GetMapping("/users/{id}")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO getUserById(@PathVariable("id") long id){
-        User userFound = userService.getUserById(id);
+    public MappingJacksonValue getUserById(@PathVariable("id") long id,
+                                           @RequestParam(value = "fields", required = false) String fields,
+                                           WebRequest webRequest, HttpServletResponse response){
+        FieldSelection fieldSelection = FieldSelection.parse(fields);
+
+        // a known version is enough to answer a repeat read, the database is not queried at all
+        String eTag = representationETag(userVersionTracker.getUserETag(id), webRequest, response);
+        if (eTag != null && webRequest.checkNotModified(eTag)) {
+            return null;
+        }
 
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userFound);
+        long readStartedAt = userVersionTracker.getCollectionVersion();
+        UserSummary userFound = userService.getUserById(id);
+
+        eTag = representationETag(userVersionTracker.remember(userFound.getId(), userFound.getVersion(), readStartedAt),
+                webRequest, response);
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+        // the ETag of the version just read, it replaces a remembered one that did not match
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        return fieldSelection.wrap(DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(userFound, fieldSelection));
     }
 
     @PutMapping("/logout")
@@ -92,6 +327,15 @@ public class UserController {
     }
 
 
+    @PutMapping("/heartbeat")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void heartbeat(@RequestBody UserTokenDTO tokenDTO) {
+        // keeps the session from being expired by the SessionReaper
+        User userInput = DTOMapper.INSTANCE.convertUserTokenDTOtoEntity(tokenDTO);
+
+        userService.heartbeat(userInput);
+    }
+
     @PutMapping("/users/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public UserGetDTO editUser(@RequestBody UserEditDTO editUser) {
@@ -101,4 +345,43 @@ public class UserController {
 
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(editedUser);
     }
+
+    /**
+     * The JSON and the CBOR body of a resource are different representations and must not share an ETag,
+     * otherwise a cache holding one could be revalidated for the other. The CBOR ETag gets a suffix, and Vary
+     * tells caches that the body depends on the Accept header.
+     * The fields parameter needs no suffix, it is part of the URL.
+     */
+    private static String representationETag(String eTag, WebRequest webRequest, HttpServletResponse response) {
+        if (!response.containsHeader(HttpHeaders.VARY)) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        if (eTag == null || !prefersCbor(webRequest.getHeader(HttpHeaders.ACCEPT))) {
+            return eTag;
+        }
+        return eTag.substring(0, eTag.length() - 1) + "-cbor\"";
+    }
+
+    private static boolean prefersCbor(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        try {
+            List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(mediaTypes);
+            // the same choice the message converters make: the first accepted type one of them can write
+            for (MediaType mediaType : mediaTypes) {
+                if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                    return false;
+                }
+                if (mediaType.isCompatibleWith(APPLICATION_CBOR)) {
+                    return true;
+                }
+            }
+        }
+        catch (InvalidMediaTypeException e) {
+            // answered with 406 by the converters anyway
+        }
+        return false;
+    }
 }
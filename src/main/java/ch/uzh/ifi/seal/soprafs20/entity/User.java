@@ -1,10 +1,15 @@
 package ch.uzh.ifi.seal.soprafs20.entity;
 
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.OptimisticLock;
 import org.hibernate.exception.DataException;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDate;
 
 /**
  * Internal User Representation
@@ -12,15 +17,20 @@ import java.io.Serializable;
  * Every variable will be mapped into a database field with the @Column annotation
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes the primary key
+ * Users are kept in the second-level cache (see ehcache.xml), every update through Hibernate replaces the cached copy.
  */
 @Entity
 @Table(name = "USER")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class User implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	// ids come from a pooled sequence, so inserts can be batched and only every 50th insert hits the sequence
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_sequence")
+	@SequenceGenerator(name = "user_sequence", sequenceName = "USER_SEQUENCE", allocationSize = 50)
 	private Long id;
 	
 	@Column(nullable = false) 
@@ -36,10 +46,20 @@ public class User implements Serializable {
 	private UserStatus status;
 
 	@Column(nullable = false)
-    private String creationDate;
+    private LocalDate creationDate;
 
     @Column
-    private String birthday ;
+    private LocalDate birthday;
+
+	// incremented by Hibernate on every update, the ETags of the API are derived from it
+	@Version
+	private Long version;
+
+	// set by login and heartbeats, online users that have not been seen for too long are logged out by the SessionReaper
+	// it is not part of the API, so refreshing it does not count as a new version
+	@Column
+	@OptimisticLock(excluded = true)
+	private Instant lastSeen;
 
 
 	public Long getId() { return id; }
@@ -75,9 +95,15 @@ public class User implements Serializable {
 		this.status = status;
 	}
 
-	public String getCreationDate() { return creationDate; }
-	public void setCreationDate(String creationDate) { this.creationDate = creationDate; }
+	public LocalDate getCreationDate() { return creationDate; }
+	public void setCreationDate(LocalDate creationDate) { this.creationDate = creationDate; }
+
+	public LocalDate getBirthday() { return this.birthday; }
+	public void setBirthday(LocalDate birthday) { this.birthday = birthday; }
+
+	public Long getVersion() { return version; }
+	public void setVersion(Long version) { this.version = version; }
 
-	public String getBirthday() { return this.birthday; }
-	public void  setBirthday(String birthday ) { this.birthday = birthday; }
+	public Instant getLastSeen() { return lastSeen; }
+	public void setLastSeen(Instant lastSeen) { this.lastSeen = lastSeen; }
 }
@@ -1,7 +1,9 @@
 package ch.uzh.ifi.seal.soprafs20.exceptions;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -11,15 +13,24 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 @ControllerAdvice
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
     private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
 
+    private final MeterRegistry meterRegistry;
+
+    public GlobalExceptionAdvice(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @ExceptionHandler(value = {IllegalArgumentException.class, IllegalStateException.class})
     protected ResponseEntity<Object> handleConflict(RuntimeException ex, WebRequest request) {
         String bodyOfResponse = "This should be application specific";
@@ -33,12 +44,30 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
         return ex;
     }
 
+    // counts every ResponseStatusException by status, the response itself stays the same as without this handler
+    @ExceptionHandler(ResponseStatusException.class)
+    public void handleResponseStatusException(ResponseStatusException ex, HttpServletResponse response) throws IOException {
+        meterRegistry.counter("user.errors", "status", ex.getStatus().name()).increment();
+        if (ex.getStatus() == HttpStatus.SERVICE_UNAVAILABLE) {
+            // overload is short-lived, e.g. a full password hashing queue
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        }
+        response.sendError(ex.getStatus().value(), ex.getReason());
+    }
+
     @ExceptionHandler(TransactionSystemException.class)
     @ResponseStatus(HttpStatus.CONFLICT)
     public void handleTransactionSystemException(Exception ex, HttpServletRequest request) {
         log.error(String.format("Request: %s raised %s", request.getRequestURL(), ex));
     }
 
+    // the row was changed in between, e.g. by another node whose change had not reached this node's cache yet
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public void handleOptimisticLockingFailure(Exception ex, HttpServletRequest request) {
+        log.warn(String.format("Request: %s raised %s", request.getRequestURL(), ex));
+    }
+
     // Keep this one disable for all testing purposes -> it shows more detail with this one disabled
     @ExceptionHandler(HttpServerErrorException.InternalServerError.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -0,0 +1,31 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Idle Session
+ * An online user the SessionReaper is about to log out, with the token of the session it closes afterwards.
+ * Filled by a constructor expression in the UserRepository, like the UserSummary.
+ */
+public class IdleSession {
+
+	private final Long userId;
+	private final String username;
+	private final String token;
+	private final LocalDate birthday;
+
+	public IdleSession(Long userId, String username, String token, LocalDate birthday) {
+		this.userId = userId;
+		this.username = username;
+		this.token = token;
+		this.birthday = birthday;
+	}
+
+	public Long getUserId() { return userId; }
+
+	public String getUsername() { return username; }
+
+	public String getToken() { return token; }
+
+	public LocalDate getBirthday() { return birthday; }
+}
@@ -1,12 +1,69 @@
 package ch.uzh.ifi.seal.soprafs20.repository;
 
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
 @Repository("userRepository")
 public interface UserRepository extends JpaRepository<User, Long> {
-	User findByPassword(String password);
+	// the results are kept in the query cache, which Hibernate invalidates on every write to the USER table
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
 	User findByUsername(String username);
+
+	@QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
 	User findByToken(String token);
+
+	// read path: only the columns of the API, no managed entities
+	String SUMMARY = "select new ch.uzh.ifi.seal.soprafs20.repository.UserSummary("
+			+ "u.id, u.username, u.status, u.birthday, u.creationDate, u.version) from User u ";
+
+	@Query(SUMMARY + "order by u.id")
+	List<UserSummary> findAllSummaries();
+
+	// keyset pagination: seeks past the last seen id instead of counting an OFFSET
+	@Query(SUMMARY + "where u.id > :after order by u.id")
+	List<UserSummary> findSummariesAfter(@Param("after") Long after, Pageable pageable);
+
+	@Query(SUMMARY + "where u.id in :ids order by u.id")
+	List<UserSummary> findSummariesByIds(@Param("ids") Collection<Long> ids);
+
+	// username search without the UsernameIndex, the pattern is lower case and its wildcards escaped with \
+	@Query(SUMMARY + "where lower(u.username) like :pattern escape '\\' order by lower(u.username), u.username")
+	List<UserSummary> findSummariesByUsernameLike(@Param("pattern") String pattern, Pageable pageable);
+
+
+	// set-based uniqueness check for the bulk import, one query per batch instead of one per user
+	@Query("select u.username from User u where u.username in :usernames")
+	List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+	// sessions of the SessionReaper: online users that have not been seen since the cutoff
+	@Query("select new ch.uzh.ifi.seal.soprafs20.repository.IdleSession(u.id, u.username, u.token, u.birthday) "
+			+ "from User u where u.status = :status and (u.lastSeen is null or u.lastSeen < :cutoff) order by u.id")
+	List<IdleSession> findIdleSessions(@Param("status") UserStatus status, @Param("cutoff") Instant cutoff, Pageable pageable);
+
+	// a single UPDATE for a whole batch, users that sent a heartbeat since they were selected are left alone
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("update User u set u.status = :offline, u.token = null, u.version = u.version + 1 "
+			+ "where u.id in :ids and u.status = :online and (u.lastSeen is null or u.lastSeen < :cutoff)")
+	int expireIdleSessions(@Param("ids") Collection<Long> ids, @Param("cutoff") Instant cutoff,
+						   @Param("online") UserStatus online, @Param("offline") UserStatus offline);
+
+	// those of the users that have the status, e.g. the ones a bulk UPDATE has reached
+	@Query("select u.id from User u where u.id in :ids and u.status = :status")
+	List<Long> findIdsByIdsAndStatus(@Param("ids") Collection<Long> ids, @Param("status") UserStatus status);
+
+	// only the ids, used to fill the PresenceRegistry on startup
+	@Query("select u.id from User u where u.status = :status and u.id > :after order by u.id")
+	List<Long> findIdsByStatusAfter(@Param("status") UserStatus status, @Param("after") Long after, Pageable pageable);
 }
@@ -0,0 +1,49 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+
+import java.time.LocalDate;
+
+/**
+ * User Summary
+ * Read-only view of a user with exactly the columns the API returns (no password, no session token).
+ * It is filled by the constructor expressions in the UserRepository, so reads neither create managed entities
+ * nor leave anything behind for Hibernate to dirty check. Single users are copied from the cached entity instead.
+ */
+public class UserSummary {
+
+	private final Long id;
+	private final String username;
+	private final UserStatus status;
+	private final LocalDate birthday;
+	private final LocalDate creationDate;
+	private final Long version;
+
+	public UserSummary(Long id, String username, UserStatus status,
+					   LocalDate birthday, LocalDate creationDate, Long version) {
+		this.id = id;
+		this.username = username;
+		this.status = status;
+		this.birthday = birthday;
+		this.creationDate = creationDate;
+		this.version = version;
+	}
+
+	public static UserSummary of(User user) {
+		return new UserSummary(user.getId(), user.getUsername(), user.getStatus(),
+				user.getBirthday(), user.getCreationDate(), user.getVersion());
+	}
+
+	public Long getId() { return id; }
+
+	public String getUsername() { return username; }
+
+	public UserStatus getStatus() { return status; }
+
+	public LocalDate getBirthday() { return birthday; }
+
+	public LocalDate getCreationDate() { return creationDate; }
+
+	public Long getVersion() { return version; }
+}
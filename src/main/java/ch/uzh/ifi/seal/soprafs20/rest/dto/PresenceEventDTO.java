@@ -0,0 +1,51 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+
+public class PresenceEventDTO {
+
+    private long sequence;
+    private String type;
+    private Long id;
+    private String username;
+    private UserStatus status;
+    private String birthday;
+
+    public long getSequence() {
+        return sequence;
+    }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getType() {
+        return type;
+    }
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+    public void setStatus(UserStatus status) {
+        this.status = status;
+    }
+
+    public String getBirthday() { return birthday; }
+    public void setBirthday(String birthday) { this.birthday = birthday; }
+}
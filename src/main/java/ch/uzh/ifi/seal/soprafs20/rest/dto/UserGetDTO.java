@@ -1,14 +1,16 @@
 package ch.uzh.ifi.seal.soprafs20.rest.dto;
 
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.FieldSelection;
+import com.fasterxml.jackson.annotation.JsonFilter;
 
+// ?fields=... leaves out the fields that were not selected, see FieldSelection
+@JsonFilter(FieldSelection.FILTER_ID)
 public class UserGetDTO {
 
     private Long id;
     private String username;
-    private String password;
     private UserStatus status;
-    private String token;
     private String birthday;
     private String creationDate;
 
@@ -26,9 +28,6 @@ public class UserGetDTO {
         this.username = username;
     }
 
-    public String getPassword() { return password; }
-    public void setPassword(String name) { this.password = name; }
-
     public UserStatus getStatus() {
         return status;
     }
@@ -36,13 +35,6 @@ public class UserGetDTO {
         this.status = status;
     }
 
-    public String getToken() {
-        return token;
-    }
-    public void setToken(String token) {
-        this.token = token;
-    }
-
     public String getCreationDate() {
         return creationDate;
     }
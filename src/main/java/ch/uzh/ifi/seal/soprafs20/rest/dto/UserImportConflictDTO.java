@@ -0,0 +1,29 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+public class UserImportConflictDTO {
+
+    private long row;
+    private String username;
+    private String reason;
+
+    public long getRow() {
+        return row;
+    }
+    public void setRow(long row) {
+        this.row = row;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+}
@@ -0,0 +1,31 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+import java.util.List;
+
+public class UserImportResultDTO {
+
+    private long created;
+    private long conflicted;
+    private List<UserImportConflictDTO> conflicts;
+
+    public long getCreated() {
+        return created;
+    }
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public long getConflicted() {
+        return conflicted;
+    }
+    public void setConflicted(long conflicted) {
+        this.conflicted = conflicted;
+    }
+
+    public List<UserImportConflictDTO> getConflicts() {
+        return conflicts;
+    }
+    public void setConflicts(List<UserImportConflictDTO> conflicts) {
+        this.conflicts = conflicts;
+    }
+}
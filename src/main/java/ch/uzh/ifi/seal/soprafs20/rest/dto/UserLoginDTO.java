@@ -0,0 +1,52 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+
+// answer to PUT /login, the only representation of a user that carries the session token
+public class UserLoginDTO {
+
+    private Long id;
+    private String username;
+    private UserStatus status;
+    private String token;
+    private String birthday;
+    private String creationDate;
+
+    public Long getId() {
+        return id;
+    }
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+    public void setStatus(UserStatus status) {
+        this.status = status;
+    }
+
+    public String getToken() {
+        return token;
+    }
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public String getCreationDate() {
+        return creationDate;
+    }
+    public void setCreationDate(String creationDate) {
+        this.creationDate = creationDate;
+    }
+
+    public String getBirthday() { return birthday; }
+    public void setBirthday(String birthday) { this.birthday = birthday; }
+}
\ No newline at end of file
@@ -1,10 +1,16 @@
 package ch.uzh.ifi.seal.soprafs20.rest.mapper;
 
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.PresenceEventDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserEditDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserImportResultDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserLoginDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserTokenDTO;
+import ch.uzh.ifi.seal.soprafs20.service.UserEvent;
+import ch.uzh.ifi.seal.soprafs20.service.UserImportReport;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
@@ -15,8 +21,9 @@ import org.mapstruct.factory.Mappers;
  * and vice versa.
  * Additional mappers can be defined for new entities.
  * Always created one mapper for getting information (GET) and one mapper for creating information (POST).
+ * Dates are converted by the DateCodec.
  */
-@Mapper
+@Mapper(uses = DateCodec.class)
 public interface DTOMapper {
 
     DTOMapper INSTANCE = Mappers.getMapper(DTOMapper.class);
@@ -29,18 +36,59 @@ public interface DTOMapper {
     @Mapping(target = "token", ignore = true)
     @Mapping(target = "birthday", ignore = true)
     @Mapping(target = "creationDate", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "lastSeen", ignore = true)
     User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
     // GET
     @Mapping(source = "id", target = "id")
-    @Mapping(source = "password", target = "password")
     @Mapping(source = "username", target = "username")
     @Mapping(source = "status", target = "status")
-    @Mapping(source = "token", target = "token")
     @Mapping(source = "birthday", target = "birthday")
     @Mapping(source = "creationDate", target = "creationDate")
     UserGetDTO convertEntityToUserGetDTO(User user);
 
+    // Login, the only response that carries the session token
+    @Mapping(source = "id", target = "id")
+    @Mapping(source = "username", target = "username")
+    @Mapping(source = "status", target = "status")
+    @Mapping(source = "token", target = "token")
+    @Mapping(source = "birthday", target = "birthday")
+    @Mapping(source = "creationDate", target = "creationDate")
+    UserLoginDTO convertEntityToUserLoginDTO(User user);
+
+    // GET (read path)
+    @Mapping(source = "id", target = "id")
+    @Mapping(source = "username", target = "username")
+    @Mapping(source = "status", target = "status")
+    @Mapping(source = "birthday", target = "birthday")
+    @Mapping(source = "creationDate", target = "creationDate")
+    UserGetDTO convertUserSummaryToUserGetDTO(UserSummary userSummary);
+
+    // GET with ?fields=..., only the selected fields are filled (and dates formatted)
+    default UserGetDTO convertUserSummaryToUserGetDTO(UserSummary userSummary, FieldSelection fields) {
+        if (fields == FieldSelection.ALL) {
+            return convertUserSummaryToUserGetDTO(userSummary);
+        }
+        UserGetDTO userGetDTO = new UserGetDTO();
+        if (fields.includes("id")) {
+            userGetDTO.setId(userSummary.getId());
+        }
+        if (fields.includes("username")) {
+            userGetDTO.setUsername(userSummary.getUsername());
+        }
+        if (fields.includes("status")) {
+            userGetDTO.setStatus(userSummary.getStatus());
+        }
+        if (fields.includes("birthday")) {
+            userGetDTO.setBirthday(DateCodec.INSTANCE.format(userSummary.getBirthday()));
+        }
+        if (fields.includes("creationDate")) {
+            userGetDTO.setCreationDate(DateCodec.INSTANCE.format(userSummary.getCreationDate()));
+        }
+        return userGetDTO;
+    }
+
     //Token
     @Mapping(target = "id", ignore = true)
     @Mapping(target = "password", ignore = true)
@@ -49,6 +97,8 @@ public interface DTOMapper {
     @Mapping(source = "token", target = "token")
     @Mapping(target = "birthday", ignore = true)
     @Mapping(target = "creationDate", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "lastSeen", ignore = true)
     User convertUserTokenDTOtoEntity(UserTokenDTO userTokenDTO);
 
     //Edit
@@ -59,5 +109,22 @@ public interface DTOMapper {
     @Mapping(target = "token", ignore = true)
     @Mapping(source = "birthday", target = "birthday")
     @Mapping(target = "creationDate", ignore = true)
+    @Mapping(target = "version", ignore = true)
+    @Mapping(target = "lastSeen", ignore = true)
     User convertUserEditDTOtoEntity(UserEditDTO userEditDTO);
+
+    //Import
+    @Mapping(source = "created", target = "created")
+    @Mapping(source = "conflicted", target = "conflicted")
+    @Mapping(source = "conflicts", target = "conflicts")
+    UserImportResultDTO convertUserImportReportToUserImportResultDTO(UserImportReport userImportReport);
+
+    //Presence
+    @Mapping(source = "sequence", target = "sequence")
+    @Mapping(source = "userEvent.type", target = "type")
+    @Mapping(source = "userEvent.userId", target = "id")
+    @Mapping(source = "userEvent.username", target = "username")
+    @Mapping(source = "userEvent.status", target = "status")
+    @Mapping(source = "userEvent.birthday", target = "birthday")
+    PresenceEventDTO convertUserEventToPresenceEventDTO(UserEvent userEvent, long sequence);
 }
\ No newline at end of file
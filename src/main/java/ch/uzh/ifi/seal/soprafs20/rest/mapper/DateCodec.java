@@ -0,0 +1,128 @@
+package ch.uzh.ifi.seal.soprafs20.rest.mapper;
+
+import org.mapstruct.Named;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * DateCodec
+ * Converts between LocalDate and the two date formats used on the API: ISO (2020-03-07) and dd.MM.yyyy (07.03.2020).
+ * Parsing reads the digits straight from the input and formatting fills a single char array, so apart from the
+ * resulting LocalDate/String nothing is allocated. The class has no state and can be shared between threads.
+ * It is used by the DTOMapper for every date field, dates are always written in the dd.MM.yyyy format.
+ */
+public class DateCodec {
+
+    public static final DateCodec INSTANCE = new DateCodec();
+
+    // only used for years the fast path cannot represent with four digits
+    private static final DateTimeFormatter FALLBACK_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.uuuu");
+
+    /**
+     * Parses a date given either as yyyy-MM-dd or as dd.MM.yyyy
+     * @param text
+     * @return LocalDate or null if the text is null or empty
+     * @throws ResponseStatusException BAD_REQUEST if the text is not a valid date
+     */
+    public LocalDate parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        if (text.length() == 10) {
+            if (text.charAt(4) == '-' && text.charAt(7) == '-') {
+                return toDate(text, digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2));
+            }
+            if (text.charAt(2) == '.' && text.charAt(5) == '.') {
+                return toDate(text, digits(text, 6, 4), digits(text, 3, 2), digits(text, 0, 2));
+            }
+        }
+        throw invalidDate(text);
+    }
+
+    /**
+     * Formats a date as dd.MM.yyyy
+     * @param date
+     * @return String or null if the date is null
+     */
+    public String format(LocalDate date) {
+        if (date == null) {
+            return null;
+        }
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            return FALLBACK_FORMATTER.format(date);
+        }
+        char[] chars = new char[10];
+        writeDigits(chars, 0, date.getDayOfMonth(), 2);
+        chars[2] = '.';
+        writeDigits(chars, 3, date.getMonthValue(), 2);
+        chars[5] = '.';
+        writeDigits(chars, 6, year, 4);
+        return new String(chars);
+    }
+
+    /**
+     * Formats a date as yyyy-MM-dd
+     * @param date
+     * @return String or null if the date is null
+     */
+    @Named("iso")
+    public String formatIso(LocalDate date) {
+        if (date == null) {
+            return null;
+        }
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            return DateTimeFormatter.ISO_LOCAL_DATE.format(date);
+        }
+        char[] chars = new char[10];
+        writeDigits(chars, 0, year, 4);
+        chars[4] = '-';
+        writeDigits(chars, 5, date.getMonthValue(), 2);
+        chars[7] = '-';
+        writeDigits(chars, 8, date.getDayOfMonth(), 2);
+        return new String(chars);
+    }
+
+    private static LocalDate toDate(String text, int year, int month, int day) {
+        if (year < 0 || month < 0 || day < 0) {
+            throw invalidDate(text);
+        }
+        try {
+            return LocalDate.of(year, month, day);
+        }
+        catch (DateTimeException e) {
+            throw invalidDate(text);
+        }
+    }
+
+    /**
+     * reads length decimal digits starting at offset, returns -1 if one of them is not a digit
+     */
+    private static int digits(String text, int offset, int length) {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void writeDigits(char[] chars, int offset, int value, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static ResponseStatusException invalidDate(String text) {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("The date %s is not valid!", text));
+    }
+}
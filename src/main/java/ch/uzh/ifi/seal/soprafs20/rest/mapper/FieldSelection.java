@@ -0,0 +1,83 @@
+package ch.uzh.ifi.seal.soprafs20.rest.mapper;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * FieldSelection
+ * The fields of a UserGetDTO a client asked for with ?fields=id,username,status. The DTOMapper only fills those
+ * fields and the response is written through a Jackson filter (see UserGetDTO) that leaves out all others,
+ * in JSON as well as in CBOR. Without the parameter every field is filled and written.
+ */
+public final class FieldSelection {
+
+    public static final String FILTER_ID = "fieldSelection";
+
+    private static final List<String> USER_FIELDS = Arrays.asList("id", "username", "status", "birthday", "creationDate");
+
+    public static final FieldSelection ALL = new FieldSelection(new LinkedHashSet<>(USER_FIELDS));
+
+    // the filters of every ObjectMapper, used whenever a response does not carry a selection of its own
+    public static final FilterProvider SERIALIZE_ALL = new SimpleFilterProvider()
+            .addFilter(FILTER_ID, SimpleBeanPropertyFilter.serializeAll());
+
+    private final Set<String> fields;
+
+    private FieldSelection(Set<String> fields) {
+        this.fields = Collections.unmodifiableSet(fields);
+    }
+
+    /**
+     * @param fields comma separated field names, null or empty for all fields
+     * @return FieldSelection
+     * @throws ResponseStatusException BAD_REQUEST if a field does not exist
+     */
+    public static FieldSelection parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+        Set<String> selected = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!USER_FIELDS.contains(name)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field: " + name);
+            }
+            selected.add(name);
+        }
+        return selected.size() == USER_FIELDS.size() ? ALL : new FieldSelection(selected);
+    }
+
+    public boolean includes(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * @return the Jackson filters that write only the selected fields
+     */
+    public FilterProvider filters() {
+        if (this == ALL) {
+            return SERIALIZE_ALL;
+        }
+        return new SimpleFilterProvider().addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(fields));
+    }
+
+    /**
+     * @param body the response, one or more UserGetDTOs
+     * @return the body together with the filters of this selection
+     */
+    public MappingJacksonValue wrap(Object body) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        value.setFilters(filters());
+        return value;
+    }
+}
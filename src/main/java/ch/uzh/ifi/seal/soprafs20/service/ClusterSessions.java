@@ -0,0 +1,138 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cluster Sessions
+ * This node's connection to the SessionStore. Logins and logouts open and close their session in the store, so all
+ * nodes agree on who is logged in. Each node keeps its own near-caches (SessionCache, PresenceRegistry, ETags,
+ * UsernameIndex, the second-level cache), which are kept up to date like this:
+ * - every UserEvent committed on this node is published to the other nodes
+ * - a closed session drops its token from the SessionCache and, for signed tokens, the revocation list of every node
+ * - a UserEvent of another node evicts the user from the second-level cache and is published again on this node,
+ *   marked as remote, so the presence, the SSE clients, the ETags and the username index follow.
+ * The StatusWriteBehind stages logins and logouts per node, keep it disabled when running several nodes.
+ */
+@Component
+public class ClusterSessions implements SessionStore.Listener {
+
+    private final SessionStore sessionStore;
+
+    private final SessionCache sessionCache;
+
+    private final SessionTokens sessionTokens;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final String nodeId;
+
+    private final LongAdder received = new LongAdder();
+
+    public ClusterSessions(SessionStore sessionStore, SessionCache sessionCache, SessionTokens sessionTokens,
+                           ApplicationEventPublisher eventPublisher, EntityManagerFactory entityManagerFactory,
+                           @Value("${users.cluster.node-id:}") String nodeId) {
+        this.sessionStore = sessionStore;
+        this.sessionCache = sessionCache;
+        this.sessionTokens = sessionTokens;
+        this.eventPublisher = eventPublisher;
+        this.entityManagerFactory = entityManagerFactory;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        sessionStore.subscribe(this.nodeId, this);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Opens the session of the user. If the surrounding transaction rolls back, the session is closed again.
+     * @return false if the user is already logged in, on any node
+     */
+    public boolean open(Long userId, String token) {
+        if (!sessionStore.open(userId, token)) {
+            return false;
+        }
+        onRollback(() -> sessionStore.close(userId, token));
+        return true;
+    }
+
+    /**
+     * Closes the session of the token. If the surrounding transaction rolls back, the session is opened again.
+     */
+    public void close(Long userId, String token) {
+        sessionCache.invalidate(token);
+        sessionTokens.revoke(token);
+        if (sessionStore.close(userId, token)) {
+            onRollback(() -> sessionStore.open(userId, token));
+        }
+    }
+
+    /**
+     * @return the id of the user logged in with the token, on any node, or null
+     */
+    public Long findUserId(String token) {
+        return token == null ? null : sessionStore.findUserId(token);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        // events received from the other nodes are not sent back
+        if (!userEvent.isRemote()) {
+            sessionStore.publish(nodeId, userEvent);
+        }
+    }
+
+    @Override
+    public void sessionClosed(Long userId, String token) {
+        sessionCache.invalidate(token);
+        sessionTokens.revoke(token);
+    }
+
+    @Override
+    public void userChanged(UserEvent userEvent) {
+        received.increment();
+        // the other node has committed, the row cached here is outdated
+        entityManagerFactory.getCache().evict(User.class, userEvent.getUserId());
+        if (userEvent.getType() != UserEvent.Type.STATUS) {
+            // a new or renamed user changes the results of the cached findByUsername queries
+            entityManagerFactory.getCache().unwrap(org.hibernate.Cache.class).evictQueryRegions();
+        }
+        eventPublisher.publishEvent(userEvent.asRemote());
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessionStore.unsubscribe(nodeId);
+    }
+
+    private static void onRollback(Runnable compensation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    compensation.run();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Database Concurrency Limiter
+ * Bounds the number of transactions that work with the database at the same time. Tomcat's worker pool used to be
+ * the only limit; once requests run on virtual threads or on the async executor (see RequestExecutionConfiguration)
+ * thousands of them could ask Hikari for one of its few connections at once and time out in its queue.
+ * Transactions wait here instead, in arrival order and for at most max-wait-ms, which keeps the pool saturated but
+ * never overrun. The permits should match spring.datasource.hikari.maximum-pool-size.
+ * See LimitedJpaTransactionManager for where the permits are taken.
+ */
+@Component
+public class DatabaseConcurrencyLimiter {
+
+    private final Semaphore permits;
+
+    private final int maxConcurrency;
+
+    private final long maxWaitNanos;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public DatabaseConcurrencyLimiter(@Value("${users.execution.database-concurrency:10}") int maxConcurrency,
+                                      @Value("${users.execution.database-max-wait-ms:2000}") long maxWaitMillis) {
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxConcurrency = maxConcurrency;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Waits for a permit, release it once the transaction is done.
+     * @return false if no permit became available within max-wait-ms
+     * @throws InterruptedException
+     */
+    public boolean acquire() throws InterruptedException {
+        if (permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
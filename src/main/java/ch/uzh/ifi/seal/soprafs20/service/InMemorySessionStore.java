@@ -0,0 +1,117 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-Memory Session Store
+ * A SessionStore within this JVM. With one node it is all that is needed. Several simulated nodes in one JVM can
+ * share it to test the cluster behaviour on one machine (see ClusterSimulation in src/loadtest/java): messages to
+ * the other nodes are delivered in order on a thread of their own, optionally after a fixed latency, like they would
+ * be over a network. Sessions do not survive a restart, the USER table keeps them for the single node case.
+ */
+public class InMemorySessionStore implements SessionStore {
+
+    private final Logger log = LoggerFactory.getLogger(InMemorySessionStore.class);
+
+    private final Map<Long, String> tokensByUserId = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> userIdsByToken = new ConcurrentHashMap<>();
+
+    private final Map<String, Listener> listeners = new ConcurrentHashMap<>();
+
+    private final long latencyMillis;
+
+    private final ScheduledExecutorService delivery;
+
+    public InMemorySessionStore(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        // one thread, so the messages arrive in the order they were sent
+        this.delivery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-store-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean open(Long userId, String token) {
+        if (tokensByUserId.putIfAbsent(userId, token) != null) {
+            return false;
+        }
+        userIdsByToken.put(token, userId);
+        return true;
+    }
+
+    @Override
+    public boolean close(Long userId, String token) {
+        if (!tokensByUserId.remove(userId, token)) {
+            return false;
+        }
+        userIdsByToken.remove(token, userId);
+        for (Listener listener : listeners.values()) {
+            deliver(() -> listener.sessionClosed(userId, token));
+        }
+        return true;
+    }
+
+    @Override
+    public Long findUserId(String token) {
+        Long userId = userIdsByToken.get(token);
+        // the index is written after the session, only trust it once both agree
+        return userId != null && token.equals(tokensByUserId.get(userId)) ? userId : null;
+    }
+
+    @Override
+    public void publish(String nodeId, UserEvent userEvent) {
+        listeners.forEach((subscriberId, listener) -> {
+            if (!subscriberId.equals(nodeId)) {
+                deliver(() -> listener.userChanged(userEvent));
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(String nodeId, Listener listener) {
+        if (listeners.putIfAbsent(nodeId, listener) != null) {
+            throw new IllegalStateException("Node " + nodeId + " is already subscribed");
+        }
+    }
+
+    @Override
+    public void unsubscribe(String nodeId) {
+        listeners.remove(nodeId);
+    }
+
+    @Override
+    public int size() {
+        return tokensByUserId.size();
+    }
+
+    public void shutdown() {
+        delivery.shutdownNow();
+    }
+
+    private void deliver(Runnable message) {
+        Runnable guarded = () -> {
+            try {
+                message.run();
+            }
+            catch (RuntimeException e) {
+                log.warn("Delivering a session store message failed", e);
+            }
+        };
+        if (latencyMillis > 0) {
+            delivery.schedule(guarded, latencyMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            delivery.execute(guarded);
+        }
+    }
+}
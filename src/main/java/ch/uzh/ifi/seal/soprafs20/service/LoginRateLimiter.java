@@ -0,0 +1,142 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login Rate Limiter
+ * Limits the login attempts per username and per client address with token buckets, so a credential-stuffing burst
+ * is turned away before it costs a database query or a password hash.
+ * Each bucket is a single timestamp (the time at which it will be full again, GCRA) that is advanced with a CAS,
+ * so attempts never block each other. A bucket that is full again carries no information and can be dropped,
+ * which keeps the maps small. If a map still exceeds max-keys (many distinct usernames or addresses), the buckets
+ * closest to full are dropped as well, down to 90% of max-keys so the next sweep is some way off: those keys start
+ * over with a full bucket, the limit of the other key still applies. The most drained buckets are kept longest.
+ */
+@Component
+public class LoginRateLimiter {
+
+    private final Limit usernameLimit;
+
+    private final Limit clientLimit;
+
+    private final int maxKeys;
+
+    public LoginRateLimiter(@Value("${users.login-limit.username-capacity:5}") int usernameCapacity,
+                            @Value("${users.login-limit.username-refill-seconds:12}") long usernameRefillSeconds,
+                            @Value("${users.login-limit.client-capacity:20}") int clientCapacity,
+                            @Value("${users.login-limit.client-refill-seconds:1}") long clientRefillSeconds,
+                            @Value("${users.login-limit.max-keys:100000}") int maxKeys) {
+        this.usernameLimit = new Limit(usernameCapacity, TimeUnit.SECONDS.toNanos(usernameRefillSeconds));
+        this.clientLimit = new Limit(clientCapacity, TimeUnit.SECONDS.toNanos(clientRefillSeconds));
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Takes a token from the bucket of the client and from the bucket of the username.
+     * The username is only charged if the client was let through.
+     * @param username
+     * @param clientAddress
+     * @return 0 if the attempt may go ahead, otherwise the nanoseconds until the next attempt would be let through
+     */
+    public long tryAcquire(String username, String clientAddress) {
+        return tryAcquire(username, clientAddress, System.nanoTime());
+    }
+
+    long tryAcquire(String username, String clientAddress, long now) {
+        long clientWait = clientLimit.tryAcquire(clientAddress == null ? "" : clientAddress, now);
+        if (clientWait > 0) {
+            return clientWait;
+        }
+        return usernameLimit.tryAcquire(username == null ? "" : username, now);
+    }
+
+    public long getUsernameRejectedCount() {
+        return usernameLimit.rejected.sum();
+    }
+
+    public long getClientRejectedCount() {
+        return clientLimit.rejected.sum();
+    }
+
+    public int size() {
+        return usernameLimit.buckets.size() + clientLimit.buckets.size();
+    }
+
+    private final class Limit {
+        private final long refillNanos;
+
+        // how far the full-again time may lie ahead of now, i.e. the capacity in time units
+        private final long toleranceNanos;
+
+        private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean sweeping = new AtomicBoolean();
+
+        private final LongAdder rejected = new LongAdder();
+
+        private Limit(int capacity, long refillNanos) {
+            this.refillNanos = refillNanos;
+            this.toleranceNanos = refillNanos * capacity;
+        }
+
+        private long tryAcquire(String key, long now) {
+            AtomicLong fullAt = buckets.get(key);
+            if (fullAt == null) {
+                fullAt = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+                if (buckets.size() > maxKeys) {
+                    sweep(now);
+                }
+            }
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current - now, 0) + now + refillNanos;
+                if (next - now > toleranceNanos) {
+                    rejected.increment();
+                    return next - now - toleranceNanos;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Drops the buckets that are full again, then the ones that will be full the soonest until the map is
+         * down to the low-water mark. Only one thread sweeps at a time, the others go on without waiting.
+         */
+        private void sweep(long now) {
+            if (!sweeping.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                buckets.values().removeIf(fullAt -> fullAt.get() - now <= 0);
+                int lowWater = maxKeys - maxKeys / 10;
+                if (buckets.size() <= lowWater) {
+                    return;
+                }
+                List<Map.Entry<String, AtomicLong>> byFullAt = new ArrayList<>(buckets.entrySet());
+                byFullAt.sort(Comparator.comparingLong(entry -> entry.getValue().get() - now));
+                Iterator<Map.Entry<String, AtomicLong>> iterator = byFullAt.iterator();
+                while (buckets.size() > lowWater && iterator.hasNext()) {
+                    Map.Entry<String, AtomicLong> entry = iterator.next();
+                    buckets.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            finally {
+                sweeping.set(false);
+            }
+        }
+    }
+}
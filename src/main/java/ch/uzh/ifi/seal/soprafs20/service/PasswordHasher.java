@@ -0,0 +1,292 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password Hasher
+ * This class hashes passwords with salted PBKDF2 (HMAC-SHA256) and verifies them in constant time.
+ * The cost is set by the number of iterations. Hashes are stored as pbkdf2$iterations$salt$hash,
+ * so changing the cost only affects new hashes and old ones are upgraded on the next successful login.
+ * Hashing runs on a small bounded executor: a login storm queues up there and is rejected with 503
+ * once the queue is full, instead of occupying every request thread with key derivation. The queue is kept
+ * well below the number of request threads and a request waits at most max-wait-ms for its hash, so
+ * a backlog turns into quick rejections rather than a server whose request threads all hang here.
+ * Optionally, successful verifications are remembered for a short time (fast path), so repeated logins
+ * of the same user with an unchanged hash do not pay the full cost again.
+ */
+@Component
+public class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final int iterations;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long maxWaitMillis;
+
+    // hash of a random password, verified against when the user does not exist so both cases take equally long
+    private final String dummyHash;
+
+    private final int fastPathMaxSize;
+    private final long fastPathTimeToLiveNanos;
+    private final byte[] fastPathSecret = new byte[32];
+    private final Map<String, Long> verifiedCredentials = new ConcurrentHashMap<>();
+
+    public PasswordHasher(@Value("${users.password.iterations:27500}") int iterations,
+                          @Value("${users.password.hashing-threads:0}") int hashingThreads,
+                          @Value("${users.password.queue-size:64}") int queueSize,
+                          @Value("${users.password.max-wait-ms:2000}") long maxWaitMillis,
+                          @Value("${users.password.fast-path.max-size:0}") int fastPathMaxSize,
+                          @Value("${users.password.fast-path.ttl-seconds:300}") long fastPathTimeToLiveSeconds) {
+        this.iterations = iterations;
+        this.maxWaitMillis = maxWaitMillis;
+        int threads = hashingThreads > 0 ? hashingThreads : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.fastPathMaxSize = fastPathMaxSize;
+        this.fastPathTimeToLiveNanos = TimeUnit.SECONDS.toNanos(fastPathTimeToLiveSeconds);
+        random.nextBytes(fastPathSecret);
+
+        byte[] dummyPassword = new byte[16];
+        random.nextBytes(dummyPassword);
+        this.dummyHash = computeHash(Base64.getEncoder().encodeToString(dummyPassword), iterations);
+    }
+
+    /**
+     * Hashes the password with a fresh salt and the configured number of iterations.
+     * @param rawPassword
+     * @return String the encoded hash
+     * @throws ResponseStatusException SERVICE_UNAVAILABLE if the hashing queue is full or the hash takes too long
+     */
+    public String hash(String rawPassword) {
+        return submit(() -> computeHash(rawPassword, iterations));
+    }
+
+    /**
+     * Hashes many passwords at once, e.g. for the bulk import. The passwords are split into one slice per
+     * hashing thread, so a large batch only takes a few places in the queue and does not lock out logins.
+     * @param rawPasswords
+     * @return List<String> the encoded hashes, in the same order
+     */
+    public List<String> hashAll(List<String> rawPasswords) {
+        int slices = Math.min(executor.getCorePoolSize(), rawPasswords.size());
+        int sliceSize = slices == 0 ? 0 : (rawPasswords.size() + slices - 1) / slices;
+        List<Future<List<String>>> futures = new ArrayList<>();
+
+        for (int start = 0; start < rawPasswords.size(); start += sliceSize) {
+            List<String> slice = rawPasswords.subList(start, Math.min(start + sliceSize, rawPasswords.size()));
+            futures.add(submitAsync(() -> {
+                List<String> hashes = new ArrayList<>(slice.size());
+                for (String rawPassword : slice) {
+                    hashes.add(computeHash(rawPassword, iterations));
+                }
+                return hashes;
+            }));
+        }
+
+        List<String> hashes = new ArrayList<>(rawPasswords.size());
+        // a slice may wait once for the queue and then hashes all of its passwords
+        long sliceWaitMillis = maxWaitMillis * (sliceSize + 1);
+        for (Future<List<String>> future : futures) {
+            hashes.addAll(await(future, sliceWaitMillis));
+        }
+        return hashes;
+    }
+
+    /**
+     * Checks the password against the stored hash in constant time. If there is no stored hash
+     * (e.g. the user does not exist) the password is checked against a dummy hash and false is returned.
+     * Values without the pbkdf2 prefix are treated as plaintext passwords stored before hashing was introduced.
+     * @param rawPassword
+     * @param storedHash
+     * @return boolean
+     */
+    public boolean matches(String rawPassword, String storedHash) {
+        if (rawPassword == null) {
+            return false;
+        }
+        if (storedHash == null) {
+            submit(() -> verify(rawPassword, dummyHash));
+            return false;
+        }
+        if (!storedHash.startsWith(PREFIX + "$")) {
+            return MessageDigest.isEqual(rawPassword.getBytes(StandardCharsets.UTF_8), storedHash.getBytes(StandardCharsets.UTF_8));
+        }
+
+        String verifiedKey = fastPathMaxSize > 0 ? fastPathKey(rawPassword, storedHash) : null;
+        if (verifiedKey != null) {
+            Long expiresAt = verifiedCredentials.get(verifiedKey);
+            if (expiresAt != null && System.nanoTime() - expiresAt < 0) {
+                return true;
+            }
+        }
+
+        boolean matches = submit(() -> verify(rawPassword, storedHash));
+        if (matches && verifiedKey != null) {
+            rememberVerified(verifiedKey);
+        }
+        return matches;
+    }
+
+    /**
+     * @param storedHash
+     * @return true if the stored value is plaintext or was hashed with a different cost
+     */
+    public boolean needsRehash(String storedHash) {
+        if (storedHash == null || !storedHash.startsWith(PREFIX + "$")) {
+            return true;
+        }
+        String[] parts = storedHash.split("\\$");
+        return parts.length != 4 || Integer.parseInt(parts[1]) != iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T submit(Callable<T> task) {
+        return await(submitAsync(task), maxWaitMillis);
+    }
+
+    private <T> Future<T> submitAsync(Callable<T> task) {
+        try {
+            return executor.submit(task);
+        }
+        catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many passwords are being checked at the moment, try again later!");
+        }
+    }
+
+    private static <T> T await(Future<T> future, long timeoutMillis) {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            // nobody waits for the result anymore, it must not keep a hashing thread busy
+            future.cancel(true);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many passwords are being checked at the moment, try again later!");
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing a password", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Hashing a password failed", e.getCause());
+        }
+    }
+
+    private String computeHash(String rawPassword, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(rawPassword, salt, iterations);
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    private boolean verify(String rawPassword, String storedHash) {
+        String[] parts = storedHash.split("\\$");
+        if (parts.length != 4) {
+            log.warn("Stored password hash has an unknown format");
+            return false;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] expected = decoder.decode(parts[3]);
+        byte[] actual = pbkdf2(rawPassword, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+
+        // MessageDigest.isEqual does not return early on the first differing byte
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private static byte[] pbkdf2(String rawPassword, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * the fast path only keeps a keyed MAC of (hash, password), never the password itself
+     */
+    private String fastPathKey(String rawPassword, String storedHash) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(fastPathSecret, "HmacSHA256"));
+            mac.update(storedHash.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(rawPassword.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private void rememberVerified(String key) {
+        long now = System.nanoTime();
+        if (verifiedCredentials.size() >= fastPathMaxSize) {
+            Iterator<Long> expiries = verifiedCredentials.values().iterator();
+            while (expiries.hasNext()) {
+                if (now - expiries.next() >= 0) {
+                    expiries.remove();
+                }
+            }
+        }
+        // still full -> skip, the next login simply takes the slow path
+        if (verifiedCredentials.size() < fastPathMaxSize) {
+            verifiedCredentials.put(key, now + fastPathTimeToLiveNanos);
+        }
+    }
+}
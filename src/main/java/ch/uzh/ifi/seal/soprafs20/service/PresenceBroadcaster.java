@@ -0,0 +1,288 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.rest.dto.PresenceEventDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Presence Broadcaster
+ * This class pushes every committed UserEvent to the clients subscribed to GET /users/events (Server-Sent Events),
+ * so clients no longer have to poll GET /users to see who went online or offline.
+ * Every event gets a sequence number, its event id is the sequence number prefixed with an id of this run
+ * (like the ETags of the UserVersionTracker). The last events are kept, so a client that reconnects with the
+ * event id it saw last (Last-Event-ID) receives what it missed. If it missed more than is kept, or its id is
+ * from before a restart or from another node, it gets a reset event and has to reload the user list once.
+ * Every subscriber has its own bounded buffer that is drained on a small dispatcher pool. A subscriber that
+ * cannot keep up (buffer full) is disconnected with an overflow event instead of slowing down everyone else;
+ * it can reconnect and resume from its last sequence number.
+ */
+@Component
+public class PresenceBroadcaster {
+
+    static final String EVENT_PRESENCE = "presence";
+    static final String EVENT_RESET = "reset";
+    static final String EVENT_OVERFLOW = "overflow";
+
+    private final Logger log = LoggerFactory.getLogger(PresenceBroadcaster.class);
+
+    // the sequence starts over on every run, ids handed out by another run must never be taken for ours
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+
+    private final int historySize;
+
+    private final int bufferSize;
+
+    private final long timeoutMillis;
+
+    private final Executor dispatcher;
+
+    // guarded by itself, together with sequence
+    private final Deque<PresenceEventDTO> history = new ArrayDeque<>();
+
+    private long sequence;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public PresenceBroadcaster(@Value("${users.presence.history-size:1000}") int historySize,
+                               @Value("${users.presence.buffer-size:256}") int bufferSize,
+                               @Value("${users.presence.timeout-ms:1800000}") long timeoutMillis,
+                               @Value("${users.presence.dispatcher-threads:2}") int dispatcherThreads) {
+        this(historySize, bufferSize, timeoutMillis, Executors.newFixedThreadPool(dispatcherThreads, daemonThreads()));
+    }
+
+    PresenceBroadcaster(int historySize, int bufferSize, long timeoutMillis, Executor dispatcher) {
+        this.historySize = historySize;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Assigns the next sequence number to the event and hands it to every subscriber.
+     * Runs after the publishing transaction has committed, or right away if there was none.
+     * @param userEvent
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        synchronized (history) {
+            PresenceEventDTO event = DTOMapper.INSTANCE.convertUserEventToPresenceEventDTO(userEvent, ++sequence);
+            history.addLast(event);
+            if (history.size() > historySize) {
+                history.removeFirst();
+            }
+            // enqueued under the lock, so every subscriber sees the events in sequence order
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Opens a new event stream.
+     * @param lastEventId id of the last event the client has seen, null for a new client
+     * @return SseEmitter
+     */
+    public SseEmitter subscribe(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = subscribe(lastEventId, new EmitterSink(emitter));
+
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        return emitter;
+    }
+
+    Subscriber subscribe(String lastEventId, PresenceSink sink) {
+        Subscriber subscriber = new Subscriber(sink);
+        Long lastSequence = lastEventId == null ? null : parseSequence(lastEventId);
+
+        synchronized (history) {
+            if (lastEventId != null) {
+                long oldestKept = history.isEmpty() ? sequence + 1 : history.peekFirst().getSequence();
+
+                if (lastSequence == null || lastSequence > sequence || lastSequence < oldestKept - 1
+                        || sequence - lastSequence > bufferSize) {
+                    // the gap cannot be filled from the history (or the id is from another run) -> reload everything
+                    subscriber.reset(sequence);
+                }
+                else {
+                    for (PresenceEventDTO event : history) {
+                        if (event.getSequence() > lastSequence) {
+                            subscriber.offer(event);
+                        }
+                    }
+                }
+            }
+            subscribers.add(subscriber);
+        }
+        return subscriber;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    String eventId(long sequence) {
+        return epoch + "-" + sequence;
+    }
+
+    // the sequence number of an event id of this run, null for any other id
+    private Long parseSequence(String eventId) {
+        String prefix = epoch + "-";
+        if (!eventId.startsWith(prefix)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(eventId.substring(prefix.length()));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        if (dispatcher instanceof ExecutorService) {
+            ((ExecutorService) dispatcher).shutdown();
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "presence-dispatcher-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Where the events of one subscriber go, an SseEmitter in production.
+     */
+    interface PresenceSink {
+        void send(String name, String id, Object data) throws IOException;
+
+        void complete();
+    }
+
+    private static final class EmitterSink implements PresenceSink {
+        private final SseEmitter emitter;
+
+        private EmitterSink(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void send(String name, String id, Object data) throws IOException {
+            emitter.send(SseEmitter.event().name(name).id(id).data(data));
+        }
+
+        @Override
+        public void complete() {
+            emitter.complete();
+        }
+    }
+
+    private static final class Message {
+        private final String name;
+        private final String id;
+        private final Object data;
+
+        private Message(String name, String id, Object data) {
+            this.name = name;
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    final class Subscriber {
+        private final PresenceSink sink;
+        // one slot more than the configured size, it is reserved for the overflow notice
+        private final BlockingQueue<Message> buffer = new ArrayBlockingQueue<>(bufferSize + 1);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscriber(PresenceSink sink) {
+            this.sink = sink;
+        }
+
+        private void offer(PresenceEventDTO event) {
+            if (closed) {
+                return;
+            }
+            if (buffer.remainingCapacity() <= 1) {
+                // too slow -> stop buffering, tell the client where to resume and disconnect it
+                closed = true;
+                subscribers.remove(this);
+                String resumeId = eventId(event.getSequence() - 1);
+                buffer.offer(new Message(EVENT_OVERFLOW, resumeId, resumeId));
+            }
+            else {
+                buffer.offer(new Message(EVENT_PRESENCE, eventId(event.getSequence()), event));
+            }
+            scheduleDrain();
+        }
+
+        private void reset(long currentSequence) {
+            String currentId = eventId(currentSequence);
+            buffer.offer(new Message(EVENT_RESET, currentId, currentId));
+            scheduleDrain();
+        }
+
+        private void close() {
+            closed = true;
+            subscribers.remove(this);
+            sink.complete();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true)) {
+                dispatcher.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Message message;
+                while ((message = buffer.poll()) != null) {
+                    try {
+                        sink.send(message.name, message.id, message.data);
+                    }
+                    catch (IOException | IllegalStateException e) {
+                        log.debug("Presence subscriber disconnected", e);
+                        buffer.clear();
+                        close();
+                        return;
+                    }
+                    if (EVENT_OVERFLOW.equals(message.name)) {
+                        buffer.clear();
+                        sink.complete();
+                        return;
+                    }
+                }
+                draining.set(false);
+                // an event might have been offered after the last poll but before the flag was cleared
+            } while (!buffer.isEmpty() && draining.compareAndSet(false, true));
+        }
+    }
+}
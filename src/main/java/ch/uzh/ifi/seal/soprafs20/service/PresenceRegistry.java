@@ -0,0 +1,177 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Presence Registry
+ * Keeps the ids of all online users in memory, so counting or listing them does not scan the USER table.
+ * The ids are spread over a number of stripes, each one a sorted set with its own lock, so logins and logouts
+ * of different users rarely wait for each other. The total is kept in a separate counter, which makes counting O(1).
+ * The registry follows the committed status changes of the UserService and is filled from the database on startup.
+ * Status changes that are committed while the database is scanned are applied again after the scan, so a page read
+ * before such a change cannot undo it.
+ */
+@Component
+public class PresenceRegistry {
+
+    private final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    private final UserRepository userRepository;
+
+    private final TreeSet<Long>[] stripes;
+
+    private final AtomicInteger onlineCount = new AtomicInteger();
+
+    private final int reconcileBatchSize;
+
+    private final Object reconcileLock = new Object();
+
+    // status changes seen while reconcile() runs, null otherwise; guarded by reconcileLock
+    private List<UserEvent> eventsDuringReconcile;
+
+    @SuppressWarnings("unchecked")
+    public PresenceRegistry(@Qualifier("userRepository") UserRepository userRepository,
+                            @Value("${users.presence.registry-stripes:16}") int stripeCount,
+                            @Value("${users.presence.reconcile-batch-size:1000}") int reconcileBatchSize) {
+        this.userRepository = userRepository;
+        this.reconcileBatchSize = reconcileBatchSize;
+        // round up to a power of two, so the stripe can be picked with a bit mask
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new TreeSet[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new TreeSet<>();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        if (userEvent.getType() != UserEvent.Type.STATUS) {
+            return;
+        }
+        synchronized (reconcileLock) {
+            if (eventsDuringReconcile != null) {
+                eventsDuringReconcile.add(userEvent);
+            }
+        }
+        apply(userEvent);
+    }
+
+    private void apply(UserEvent userEvent) {
+        if (userEvent.getStatus() == UserStatus.ONLINE) {
+            markOnline(userEvent.getUserId());
+        }
+        else {
+            markOffline(userEvent.getUserId());
+        }
+    }
+
+    /**
+     * Loads the ids of all users that are ONLINE in the database, page by page.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        synchronized (reconcileLock) {
+            eventsDuringReconcile = new ArrayList<>();
+        }
+        for (TreeSet<Long> stripe : stripes) {
+            synchronized (stripe) {
+                onlineCount.addAndGet(-stripe.size());
+                stripe.clear();
+            }
+        }
+
+        Long after = 0L;
+        List<Long> page;
+        do {
+            page = userRepository.findIdsByStatusAfter(UserStatus.ONLINE, after, PageRequest.of(0, reconcileBatchSize));
+            for (Long id : page) {
+                markOnline(id);
+                after = id;
+            }
+        } while (page.size() == reconcileBatchSize);
+
+        // a page may have been read before a change that was applied in the meantime, the change is newer
+        synchronized (reconcileLock) {
+            for (UserEvent userEvent : eventsDuringReconcile) {
+                apply(userEvent);
+            }
+            eventsDuringReconcile = null;
+        }
+
+        log.info("Presence registry reconciled, {} users online", onlineCount.get());
+    }
+
+    public void markOnline(Long userId) {
+        TreeSet<Long> stripe = stripeOf(userId);
+        synchronized (stripe) {
+            if (stripe.add(userId)) {
+                onlineCount.incrementAndGet();
+            }
+        }
+    }
+
+    public void markOffline(Long userId) {
+        TreeSet<Long> stripe = stripeOf(userId);
+        synchronized (stripe) {
+            if (stripe.remove(userId)) {
+                onlineCount.decrementAndGet();
+            }
+        }
+    }
+
+    public boolean isOnline(Long userId) {
+        TreeSet<Long> stripe = stripeOf(userId);
+        synchronized (stripe) {
+            return stripe.contains(userId);
+        }
+    }
+
+    public int countOnline() {
+        return onlineCount.get();
+    }
+
+    /**
+     * Returns up to limit ids of online users greater than after, in ascending order.
+     * Every stripe contributes its first limit ids after the cursor, the merged result is cut to limit.
+     * @param after
+     * @param limit
+     * @return List<Long>
+     */
+    public List<Long> getOnlineUserIds(long after, int limit) {
+        List<Long> candidates = new ArrayList<>();
+        for (TreeSet<Long> stripe : stripes) {
+            synchronized (stripe) {
+                int taken = 0;
+                for (Long id : stripe.tailSet(after, false)) {
+                    if (taken++ == limit) {
+                        break;
+                    }
+                    candidates.add(id);
+                }
+            }
+        }
+        Collections.sort(candidates);
+        return candidates.size() > limit ? new ArrayList<>(candidates.subList(0, limit)) : candidates;
+    }
+
+    private TreeSet<Long> stripeOf(Long userId) {
+        int hash = userId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,155 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session Cache
+ * This class keeps the mapping token -> user id in memory, so authenticated lookups do not need a database query.
+ * The cache is bounded: entries expire after a fixed time to live and the oldest entries are evicted
+ * as soon as the maximum size is exceeded. Since every entry lives equally long, insertion order is also expiry order,
+ * which is why a single FIFO queue is enough to find the next entry to evict.
+ * Invalidated and replaced sessions leave their node in the queue. Once the queue holds twice as many nodes as the
+ * cache may hold sessions, those nodes are dropped, so the queue stays bounded by the maximum size however often
+ * users log in and out.
+ */
+@Component
+public class SessionCache {
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final Queue<Session> insertionOrder = new ArrayDeque<>();
+
+    private final int maxSize;
+
+    private final long timeToLiveNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SessionCache(@Value("${users.session-cache.max-size:10000}") int maxSize,
+                        @Value("${users.session-cache.ttl-seconds:1800}") long timeToLiveSeconds) {
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+    }
+
+    /**
+     * Returns the id of the user the token belongs to, or null if the token is not (or no longer) cached.
+     * @param token
+     * @return Long userId
+     */
+    public Long get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+
+        if (session == null) {
+            misses.increment();
+            return null;
+        }
+        if (session.isExpired(System.nanoTime())) {
+            // remove only this exact entry, a concurrent put for the same token must survive
+            if (sessions.remove(token, session)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return session.userId;
+    }
+
+    public void put(String token, Long userId) {
+        Session session = new Session(token, userId, System.nanoTime() + timeToLiveNanos);
+        sessions.put(token, session);
+        enqueue(session);
+    }
+
+    public void invalidate(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        sessions.clear();
+        insertionOrder.clear();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    // the number of queue nodes, live or not
+    synchronized int queueLength() {
+        return insertionOrder.size();
+    }
+
+    private synchronized void enqueue(Session session) {
+        insertionOrder.add(session);
+        if (insertionOrder.size() > 2 * Math.max(1, maxSize)) {
+            // mostly nodes of sessions that are gone, one pass per maxSize puts
+            insertionOrder.removeIf(queued -> sessions.get(queued.token) != queued);
+        }
+        evict();
+    }
+
+    /**
+     * Drops expired entries from the head of the queue and keeps dropping the oldest ones while the cache is too big.
+     * Queue nodes of invalidated or replaced sessions are skipped, they only have to leave the queue.
+     * Only writers run this, lookups never wait for it.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        Session oldest;
+
+        while ((oldest = insertionOrder.peek()) != null) {
+            boolean stale = sessions.get(oldest.token) != oldest;
+            if (!stale && !oldest.isExpired(now) && sessions.size() <= maxSize) {
+                return;
+            }
+            insertionOrder.poll();
+            if (!stale && sessions.remove(oldest.token, oldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final class Session {
+        private final String token;
+        private final Long userId;
+        private final long expiresAt;
+
+        private Session(String token, Long userId, long expiresAt) {
+            this.token = token;
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.IdleSession;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session Reaper
+ * Logs out users whose session has been idle (no login or heartbeat, see User.lastSeen) for longer than the idle TTL.
+ * It runs periodically and expires a whole batch of sessions with a single UPDATE instead of loading and saving each user.
+ * The UPDATE bypasses the entities, so the expired users are evicted from the second-level cache by id afterwards.
+ * The expired sessions are treated like logouts: they are closed in the session store, which drops their tokens from
+ * the caches of all nodes, and a STATUS event is published for each of them, so the presence registry, the SSE clients and the ETags follow.
+ */
+@Component
+public class SessionReaper {
+
+    private final Logger log = LoggerFactory.getLogger(SessionReaper.class);
+
+    private final UserRepository userRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ClusterSessions clusterSessions;
+
+    private final StatusWriteBehind statusWriteBehind;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final long idleTimeToLiveSeconds;
+
+    private final int batchSize;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAdder reaped = new LongAdder();
+
+    public SessionReaper(@Qualifier("userRepository") UserRepository userRepository,
+                         PlatformTransactionManager transactionManager, ClusterSessions clusterSessions,
+                         StatusWriteBehind statusWriteBehind, ApplicationEventPublisher eventPublisher,
+                         EntityManagerFactory entityManagerFactory,
+                         @Value("${users.session.idle-ttl-seconds:1800}") long idleTimeToLiveSeconds,
+                         @Value("${users.session.reaper-interval-seconds:60}") long intervalSeconds,
+                         @Value("${users.session.reaper-batch-size:1000}") int batchSize) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clusterSessions = clusterSessions;
+        this.statusWriteBehind = statusWriteBehind;
+        this.eventPublisher = eventPublisher;
+        this.entityManagerFactory = entityManagerFactory;
+        this.idleTimeToLiveSeconds = idleTimeToLiveSeconds;
+        this.batchSize = batchSize;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::reapQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Expires every session that has been idle for longer than the idle TTL.
+     * @return number of sessions expired
+     */
+    public int reap() {
+        long start = System.nanoTime();
+        Instant cutoff = Instant.now().minusSeconds(idleTimeToLiveSeconds);
+        int expired = 0;
+
+        // staged logins carry their login time, they have to be in the table before it is searched
+        statusWriteBehind.flush();
+
+        // candidates that were not expired no longer match the query, so every round makes progress
+        Batch batch;
+        do {
+            batch = reapBatch(cutoff);
+            expired += batch.expired.size();
+        } while (batch.idleCount == batchSize);
+
+        runs.increment();
+        runNanos.add(System.nanoTime() - start);
+        reaped.add(expired);
+        if (expired > 0) {
+            log.info("Expired {} idle sessions", expired);
+        }
+        return expired;
+    }
+
+    public long getRunCount() {
+        return runs.sum();
+    }
+
+    public double getRunTime(TimeUnit unit) {
+        return runNanos.sum() / (double) unit.toNanos(1);
+    }
+
+    public long getReapedCount() {
+        return reaped.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Expires one batch of idle sessions in one transaction.
+     * @return the users that were idle, the expired ones with the token they held before
+     */
+    private Batch reapBatch(Instant cutoff) {
+        Batch batch = transactionTemplate.execute(transaction -> {
+            List<IdleSession> idleSessions = userRepository.findIdleSessions(UserStatus.ONLINE, cutoff, PageRequest.of(0, batchSize));
+            if (idleSessions.isEmpty()) {
+                return new Batch(0, idleSessions);
+            }
+            List<Long> userIds = new ArrayList<>(idleSessions.size());
+            for (IdleSession idleSession : idleSessions) {
+                userIds.add(idleSession.getUserId());
+            }
+
+            int updated = userRepository.expireIdleSessions(userIds, cutoff, UserStatus.ONLINE, UserStatus.OFFLINE);
+            List<IdleSession> expired = idleSessions;
+            if (updated < idleSessions.size()) {
+                // some of them sent a heartbeat (or logged out) in between -> only report those that are offline now
+                Set<Long> offlineIds = new HashSet<>(userRepository.findIdsByIdsAndStatus(userIds, UserStatus.OFFLINE));
+                expired = new ArrayList<>(updated);
+                for (IdleSession idleSession : idleSessions) {
+                    if (offlineIds.contains(idleSession.getUserId())) {
+                        expired.add(idleSession);
+                    }
+                }
+            }
+            for (IdleSession session : expired) {
+                // delivered to the listeners once the transaction has been committed
+                eventPublisher.publishEvent(new UserEvent(UserEvent.Type.STATUS, session.getUserId(),
+                        session.getUsername(), UserStatus.OFFLINE, session.getBirthday()));
+            }
+            return new Batch(idleSessions.size(), expired);
+        });
+
+        for (IdleSession session : batch.expired) {
+            // the UPDATE went around the entities, the cached copies still show the user online
+            entityManagerFactory.getCache().evict(User.class, session.getUserId());
+            clusterSessions.close(session.getUserId(), session.getToken());
+        }
+        return batch;
+    }
+
+    private void reapQuietly() {
+        try {
+            reap();
+        }
+        catch (RuntimeException e) {
+            log.warn("Expiring idle sessions failed", e);
+        }
+    }
+
+    private static final class Batch {
+        private final int idleCount;
+        private final List<IdleSession> expired;
+
+        private Batch(int idleCount, List<IdleSession> expired) {
+            this.idleCount = idleCount;
+            this.expired = expired;
+        }
+    }
+}
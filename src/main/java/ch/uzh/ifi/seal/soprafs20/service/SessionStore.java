@@ -0,0 +1,59 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+/**
+ * Session Store
+ * The sessions (user id -> token) shared by all nodes of the application, and the channel through which the nodes
+ * tell each other about changed users. Opening and closing a session is atomic across all nodes, so a user is
+ * logged in at most once however the load balancer spreads the requests.
+ * Every node subscribes under its own id, see ClusterSessions. InMemorySessionStore is the stand-in for a single
+ * node (or several simulated ones in one JVM); a deployment with several processes plugs in a SessionStore bean
+ * backed by a shared store and turns the in-memory one off (users.cluster.session-store).
+ */
+public interface SessionStore {
+
+    /**
+     * Receives the changes made by the other nodes.
+     */
+    interface Listener {
+
+        /**
+         * A session was closed, on any node: the token must no longer be accepted.
+         */
+        void sessionClosed(Long userId, String token);
+
+        /**
+         * A user was changed by another node, after that node's transaction has been committed.
+         */
+        void userChanged(UserEvent userEvent);
+    }
+
+    /**
+     * @return false if the user already has a session
+     */
+    boolean open(Long userId, String token);
+
+    /**
+     * Closes the session if it is still the one of the token, and tells all nodes about it.
+     * @return false if the token does not belong to the user's current session
+     */
+    boolean close(Long userId, String token);
+
+    /**
+     * @return the id of the user whose session the token belongs to, null if there is none
+     */
+    Long findUserId(String token);
+
+    /**
+     * Hands the event to every node except the publishing one.
+     */
+    void publish(String nodeId, UserEvent userEvent);
+
+    void subscribe(String nodeId, Listener listener);
+
+    void unsubscribe(String nodeId);
+
+    /**
+     * @return the number of open sessions
+     */
+    int size();
+}
@@ -0,0 +1,255 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session Tokens
+ * This class issues the tokens handed out on login (users.token.mode):
+ * opaque - a random UUID, which only means something together with the USER table (the default)
+ * signed - kid.payload.mac: the payload carries user id, issue time and expiry and is signed with HMAC-SHA256,
+ *          so a token can be verified in-process without a token lookup.
+ * Signing keys are configured as kid:base64-secret pairs (users.token.signing-keys). The first key signs, all of them
+ * verify: to rotate, put the new key first and remove the old one once its tokens have expired (users.token.ttl-seconds).
+ * Without keys a random one is generated, its tokens are only valid on this instance and until the next restart.
+ * A logout revokes every token of the user issued up to the one logged out with. Since a user holds one session at a
+ * time, that is one entry per user, kept until the token would have expired anyway. Logouts on other nodes reach
+ * the list through the SessionStore (see ClusterSessions), as do sessions expired by the SessionReaper.
+ * A verified, unrevoked token is all the UserService asks for, the token stored with the user is not compared.
+ * The list is held in memory: after a restart, tokens revoked before it are accepted again until they expire,
+ * so keep users.token.ttl-seconds short.
+ */
+@Component
+public class SessionTokens {
+
+    public enum Mode {
+        OPAQUE, SIGNED
+    }
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int PAYLOAD_BYTES = 3 * Long.BYTES;
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Logger log = LoggerFactory.getLogger(SessionTokens.class);
+
+    private final Mode mode;
+
+    private final long timeToLiveMillis;
+
+    // in configuration order, the first key signs
+    private final Map<String, SecretKeySpec> keys = new LinkedHashMap<>();
+
+    private final String signingKeyId;
+
+    // issue times are unique per instance, so revoking one token never catches a later one of the same millisecond
+    private final AtomicLong lastIssuedAt = new AtomicLong();
+
+    // user id -> the revoked token, every token of the user issued up to it is rejected
+    private final Map<Long, Revocation> revocations = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextSweepAt = new AtomicLong();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public SessionTokens(@Value("${users.token.mode:opaque}") String mode,
+                         @Value("${users.token.signing-keys:}") String signingKeys,
+                         @Value("${users.token.ttl-seconds:86400}") long timeToLiveSeconds) {
+        this.mode = Mode.valueOf(mode.toUpperCase(Locale.ROOT));
+        this.timeToLiveMillis = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+
+        for (String signingKey : signingKeys.split(",")) {
+            if (signingKey.isBlank()) {
+                continue;
+            }
+            String[] parts = signingKey.trim().split(":", 2);
+            if (parts.length != 2 || parts[0].isEmpty() || parts[0].contains(".")) {
+                throw new IllegalArgumentException("Signing keys must be given as kid:base64-secret, the kid without dots");
+            }
+            keys.put(parts[0], new SecretKeySpec(Base64.getDecoder().decode(parts[1]), ALGORITHM));
+        }
+        if (keys.isEmpty() && this.mode == Mode.SIGNED) {
+            log.warn("No users.token.signing-keys configured, signing with a random key valid until the next restart");
+            byte[] secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+            keys.put("local", new SecretKeySpec(secret, ALGORITHM));
+        }
+        this.signingKeyId = keys.isEmpty() ? null : keys.keySet().iterator().next();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isSigned() {
+        return mode == Mode.SIGNED;
+    }
+
+    /**
+     * @param userId the user logging in
+     * @return a new token for the user
+     */
+    public String issue(Long userId) {
+        if (mode == Mode.OPAQUE) {
+            return UUID.randomUUID().toString();
+        }
+        long now = System.currentTimeMillis();
+        long issuedAt = lastIssuedAt.accumulateAndGet(now, (last, current) -> Math.max(last + 1, current));
+
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_BYTES)
+                .putLong(userId)
+                .putLong(issuedAt)
+                .putLong(issuedAt + timeToLiveMillis)
+                .array();
+        String signedPart = signingKeyId + "." + encode(payload);
+        return signedPart + "." + encode(sign(keys.get(signingKeyId), signedPart));
+    }
+
+    /**
+     * Checks signature, expiry and the revocation list, all in memory.
+     * @param token
+     * @return the id of the user the token was issued to, null if the token is not valid (or not a signed one)
+     */
+    public Long verify(String token) {
+        Claims claims = parse(token);
+        if (claims == null) {
+            rejected.increment();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Revocation revocation = revocations.get(claims.userId);
+
+        if (claims.expiresAt <= now || (revocation != null && claims.issuedAt <= revocation.issuedAt)) {
+            rejected.increment();
+            return null;
+        }
+        return claims.userId;
+    }
+
+    /**
+     * Rejects the token, and every earlier one of the same user, from now on. Opaque tokens are ignored,
+     * they are revoked by removing them from the user.
+     * @param token
+     */
+    public void revoke(String token) {
+        Claims claims = parse(token);
+        if (claims == null) {
+            return;
+        }
+        revocations.merge(claims.userId, new Revocation(claims.issuedAt, claims.expiresAt),
+                (existing, revocation) -> existing.issuedAt >= revocation.issuedAt ? existing : revocation);
+        sweep(System.currentTimeMillis());
+    }
+
+    public int getRevocationCount() {
+        return revocations.size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Forgets the revocations whose tokens have expired, at most once per sweep interval.
+     */
+    private void sweep(long now) {
+        long sweepAt = nextSweepAt.get();
+        if (now < sweepAt || !nextSweepAt.compareAndSet(sweepAt, now + SWEEP_INTERVAL_MILLIS)) {
+            return;
+        }
+        Iterator<Revocation> iterator = revocations.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Claims parse(String token) {
+        if (mode == Mode.OPAQUE || token == null) {
+            return null;
+        }
+        int macStart = token.lastIndexOf('.');
+        int payloadStart = token.indexOf('.');
+        if (payloadStart <= 0 || macStart <= payloadStart) {
+            return null;
+        }
+        SecretKeySpec key = keys.get(token.substring(0, payloadStart));
+        if (key == null) {
+            return null;
+        }
+        try {
+            String signedPart = token.substring(0, macStart);
+            byte[] mac = Base64.getUrlDecoder().decode(token.substring(macStart + 1));
+            if (!MessageDigest.isEqual(mac, sign(key, signedPart))) {
+                return null;
+            }
+            byte[] payload = Base64.getUrlDecoder().decode(token.substring(payloadStart + 1, macStart));
+            if (payload.length != PAYLOAD_BYTES) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            return new Claims(buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+        catch (IllegalArgumentException e) {
+            // not base64
+            return null;
+        }
+    }
+
+    private static byte[] sign(SecretKeySpec key, String signedPart) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(signedPart.getBytes(StandardCharsets.US_ASCII));
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static final class Claims {
+        private final long userId;
+        private final long issuedAt;
+        private final long expiresAt;
+
+        private Claims(long userId, long issuedAt, long expiresAt) {
+            this.userId = userId;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Revocation {
+        private final long issuedAt;
+        private final long expiresAt;
+
+        private Revocation(long issuedAt, long expiresAt) {
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
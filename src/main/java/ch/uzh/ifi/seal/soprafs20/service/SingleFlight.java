@@ -0,0 +1,90 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Single Flight
+ * Lets concurrent loads of the same key share one call of the loader: the first caller loads, everyone who asks
+ * for the key in the meantime waits for that result instead of loading again. Nothing is kept once the load is done.
+ * Each load carries a generation, e.g. the UserVersionTracker's counter at the time the caller started. A caller
+ * only joins a load of its own generation or a newer one, so it never receives data read before a change it
+ * could already have seen.
+ * @param <K> key
+ * @param <V> loaded value, may be null
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder loads = new LongAdder();
+
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * @param key
+     * @param generation of the caller, see above
+     * @param loader called unless a load of the key is already running
+     * @return the value loaded by this caller or by the load it joined
+     */
+    public V load(K key, long generation, Supplier<V> loader) {
+        Flight<V> own = new Flight<>(generation);
+        Flight<V> flight = inFlight.compute(key, (k, running) ->
+                running != null && running.generation >= generation ? running : own);
+        if (flight != own) {
+            shared.increment();
+            return await(flight.result);
+        }
+
+        loads.increment();
+        try {
+            V value = loader.get();
+            own.result.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e) {
+            own.result.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    public long getLoadCount() {
+        return loads.sum();
+    }
+
+    public long getSharedCount() {
+        return shared.sum();
+    }
+
+    private static <V> V await(CompletableFuture<V> result) {
+        try {
+            return result.join();
+        }
+        catch (CompletionException e) {
+            // the load failed, the waiters fail the same way
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static final class Flight<V> {
+        private final long generation;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        private Flight(long generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Status Write-Behind
+ * Optional (users.write-behind.enabled) fast path for login and logout. Instead of an UPDATE per status/token flip,
+ * the new status and token are staged in memory and written to the USER table by a background task,
+ * at most max-staleness-ms later and in batches. Several flips of the same user in between are coalesced into one write.
+ * The staged values are authoritative: the UserService overlays them on everything it reads from the database,
+ * so clients never see the older stored state. Staged users get a negative version (minus the staging revision),
+ * which keeps their ETags distinct from every stored version.
+ * Everything staged is written on shutdown, a crash of the JVM loses at most the last max-staleness-ms of flips.
+ * When disabled, nothing is ever staged and all lookups fall through to the entity.
+ */
+@Component
+public class StatusWriteBehind {
+
+    private final Logger log = LoggerFactory.getLogger(StatusWriteBehind.class);
+
+    private final UserRepository userRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final Map<Long, Staged> staged = new ConcurrentHashMap<>();
+
+    // tokens that are only known in memory so far -> user id
+    private final Map<String, Long> stagedTokens = new ConcurrentHashMap<>();
+
+    private final AtomicLong revisions = new AtomicLong();
+
+    private final ScheduledExecutorService scheduler;
+
+    public StatusWriteBehind(@Qualifier("userRepository") UserRepository userRepository,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${users.write-behind.enabled:false}") boolean enabled,
+                             @Value("${users.write-behind.max-staleness-ms:1000}") long maxStalenessMillis,
+                             @Value("${users.write-behind.batch-size:500}") int batchSize) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+
+        if (enabled) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "status-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::flushQuietly, maxStalenessMillis, maxStalenessMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            this.scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stages a new status and token for the user, unless the user already has that status.
+     * The check and the change are atomic per user, so of two concurrent logins only one succeeds.
+     * @param user the user as stored, it is not modified
+     * @param status
+     * @param token
+     * @return false if the user already had the status and nothing was staged
+     */
+    public boolean stage(User user, UserStatus status, String token) {
+        boolean[] changed = new boolean[1];
+
+        staged.compute(user.getId(), (userId, current) -> {
+            UserStatus currentStatus = current != null ? current.status : user.getStatus();
+            if (currentStatus == status) {
+                return current;
+            }
+            String currentToken = current != null ? current.token : user.getToken();
+            if (currentToken != null) {
+                stagedTokens.remove(currentToken, userId);
+            }
+            if (token != null) {
+                stagedTokens.put(token, userId);
+            }
+            changed[0] = true;
+            return new Staged(status, token, revisions.incrementAndGet(), Instant.now());
+        });
+        return changed[0];
+    }
+
+    /**
+     * @param token
+     * @return the id of the user holding a token that has not been written yet, null otherwise
+     */
+    public Long findUserIdByToken(String token) {
+        return token == null ? null : stagedTokens.get(token);
+    }
+
+    public String currentToken(User user) {
+        Staged current = staged.get(user.getId());
+        return current != null ? current.token : user.getToken();
+    }
+
+    public UserStatus currentStatus(User user) {
+        Staged current = staged.get(user.getId());
+        return current != null ? current.status : user.getStatus();
+    }
+
+    /**
+     * @param user as read from the database
+     * @return the user with the staged status, or the user itself if nothing is staged
+     */
+    public UserSummary apply(UserSummary user) {
+        if (staged.isEmpty()) {
+            return user;
+        }
+        Staged current = staged.get(user.getId());
+        if (current == null) {
+            return user;
+        }
+        return new UserSummary(user.getId(), user.getUsername(), current.status,
+                user.getBirthday(), user.getCreationDate(), -current.revision);
+    }
+
+    public List<UserSummary> applyAll(List<UserSummary> users) {
+        if (staged.isEmpty()) {
+            return users;
+        }
+        List<UserSummary> current = new ArrayList<>(users.size());
+        for (UserSummary user : users) {
+            current.add(apply(user));
+        }
+        return current;
+    }
+
+    public int getStagedCount() {
+        return staged.size();
+    }
+
+    /**
+     * Writes everything staged so far, batchSize users per transaction. The updates of one transaction are sent as
+     * a JDBC batch and go through Hibernate, so the second-level cache and the @Version column stay consistent.
+     * An entry is only dropped after its transaction has committed (and only if it was not replaced meanwhile),
+     * so readers always find the latest state either here or in the database.
+     * @return number of users written
+     */
+    public int flush() {
+        if (staged.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Staged> snapshot = new HashMap<>(staged);
+        List<Long> userIds = new ArrayList<>(snapshot.keySet());
+        int written = 0;
+
+        for (int start = 0; start < userIds.size(); start += batchSize) {
+            List<Long> batch = userIds.subList(start, Math.min(start + batchSize, userIds.size()));
+            try {
+                written += write(batch, snapshot);
+            }
+            catch (RuntimeException e) {
+                // e.g. a concurrent edit of one of the users -> write them one by one, failures are retried next time
+                log.debug("Writing a batch of status changes failed, retrying one by one", e);
+                for (Long userId : batch) {
+                    try {
+                        written += write(List.of(userId), snapshot);
+                    }
+                    catch (RuntimeException retryFailure) {
+                        log.warn("Could not write the status of user {}, retrying later", userId, retryFailure);
+                    }
+                }
+            }
+        }
+        return written;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int written = flush();
+            log.info("Wrote {} staged status changes on shutdown, {} left", written, staged.size());
+        }
+    }
+
+    private int write(List<Long> userIds, Map<Long, Staged> snapshot) {
+        Integer written = transactionTemplate.execute(transaction -> {
+            int updated = 0;
+            for (User user : userRepository.findAllById(userIds)) {
+                Staged change = snapshot.get(user.getId());
+                user.setStatus(change.status);
+                user.setToken(change.token);
+                if (change.status == UserStatus.ONLINE) {
+                    // the login counts as the first sign of life of the session
+                    user.setLastSeen(change.stagedAt);
+                }
+                updated++;
+            }
+            return updated;
+        });
+
+        for (Long userId : userIds) {
+            Staged change = snapshot.get(userId);
+            if (staged.remove(userId, change) && change.token != null) {
+                // the token is in the database now
+                stagedTokens.remove(change.token, userId);
+            }
+        }
+        return written == null ? 0 : written;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (RuntimeException e) {
+            log.warn("Writing staged status changes failed", e);
+        }
+    }
+
+    private static final class Staged {
+        private final UserStatus status;
+        private final String token;
+        private final long revision;
+        private final Instant stagedAt;
+
+        private Staged(UserStatus status, String token, long revision, Instant stagedAt) {
+            this.status = status;
+            this.token = token;
+            this.revision = revision;
+            this.stagedAt = stagedAt;
+        }
+    }
+}
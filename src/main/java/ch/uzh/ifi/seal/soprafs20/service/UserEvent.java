@@ -0,0 +1,83 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+
+import java.time.LocalDate;
+
+/**
+ * User Event
+ * Published by the UserService whenever a user is created, changes its profile or goes online/offline.
+ * It holds a copy of the user's public fields as they were when the event was published,
+ * listeners receive it after the transaction has been committed.
+ * Events of other nodes are published again on this node, marked as remote (see ClusterSessions).
+ */
+public class UserEvent {
+
+    public enum Type {
+        CREATED, PROFILE, STATUS
+    }
+
+    private final Type type;
+    private final Long userId;
+    private final String username;
+    private final UserStatus status;
+    private final LocalDate birthday;
+    private final LocalDate creationDate;
+    private final boolean remote;
+
+    public UserEvent(Type type, Long userId, String username, UserStatus status, LocalDate birthday) {
+        this(type, userId, username, status, birthday, null, false);
+    }
+
+    private UserEvent(Type type, Long userId, String username, UserStatus status, LocalDate birthday,
+                      LocalDate creationDate, boolean remote) {
+        this.type = type;
+        this.userId = userId;
+        this.username = username;
+        this.status = status;
+        this.birthday = birthday;
+        this.creationDate = creationDate;
+        this.remote = remote;
+    }
+
+    public static UserEvent of(Type type, User user) {
+        return new UserEvent(type, user.getId(), user.getUsername(), user.getStatus(), user.getBirthday(),
+                user.getCreationDate(), false);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+
+    public LocalDate getBirthday() {
+        return birthday;
+    }
+
+    public LocalDate getCreationDate() {
+        return creationDate;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+
+    /**
+     * @return a copy of this event, as received from another node
+     */
+    public UserEvent asRemote() {
+        return new UserEvent(type, userId, username, status, birthday, creationDate, true);
+    }
+}
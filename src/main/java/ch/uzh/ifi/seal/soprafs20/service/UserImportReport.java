@@ -0,0 +1,71 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User Import Report
+ * Result of a bulk import: how many users were created and which rows could not be imported.
+ * Only the first maxReportedConflicts conflicts are kept, the count always covers all of them.
+ */
+public class UserImportReport {
+
+    private final int maxReportedConflicts;
+
+    private long created;
+
+    private long conflicted;
+
+    private final List<Conflict> conflicts = new ArrayList<>();
+
+    public UserImportReport(int maxReportedConflicts) {
+        this.maxReportedConflicts = maxReportedConflicts;
+    }
+
+    void addCreated(long count) {
+        created += count;
+    }
+
+    void addConflict(long row, String username, String reason) {
+        conflicted++;
+        if (conflicts.size() < maxReportedConflicts) {
+            conflicts.add(new Conflict(row, username, reason));
+        }
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getConflicted() {
+        return conflicted;
+    }
+
+    public List<Conflict> getConflicts() {
+        return conflicts;
+    }
+
+    public static class Conflict {
+        private final long row;
+        private final String username;
+        private final String reason;
+
+        public Conflict(long row, String username, String reason) {
+            this.row = row;
+            this.username = username;
+            this.reason = reason;
+        }
+
+        public long getRow() {
+            return row;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * User Import Service
+ * This class creates large numbers of users at once. The input is consumed in batches: per batch the usernames are
+ * checked with one query, the passwords are hashed in parallel and the users are inserted with JDBC batching
+ * in their own transaction (see UserService.createUsers). Rows that cannot be imported are reported as conflicts,
+ * the rest of the import carries on.
+ */
+@Service
+public class UserImportService {
+
+    static final String REASON_INVALID = "username and password must not be empty";
+    static final String REASON_DUPLICATE = "The username provided is not unique!";
+
+    private final Logger log = LoggerFactory.getLogger(UserImportService.class);
+
+    private final UserService userService;
+
+    private final PasswordHasher passwordHasher;
+
+    private final int batchSize;
+
+    private final int maxReportedConflicts;
+
+    public UserImportService(UserService userService, PasswordHasher passwordHasher,
+                             @Value("${users.import.batch-size:1000}") int batchSize,
+                             @Value("${users.import.max-reported-conflicts:1000}") int maxReportedConflicts) {
+        this.userService = userService;
+        this.passwordHasher = passwordHasher;
+        this.batchSize = batchSize;
+        this.maxReportedConflicts = maxReportedConflicts;
+    }
+
+    /**
+     * Imports all users the iterator returns. Rows are numbered from 1 in the order they are read.
+     * @param users
+     * @return UserImportReport
+     */
+    @Timed("user.service")
+    public UserImportReport importUsers(Iterator<User> users) {
+        UserImportReport report = new UserImportReport(maxReportedConflicts);
+        Map<String, Long> batch = new LinkedHashMap<>();
+        Map<String, User> batchUsers = new HashMap<>();
+        long row = 0;
+
+        while (users.hasNext()) {
+            User user = users.next();
+            row++;
+
+            if (isBlank(user.getUsername()) || isBlank(user.getPassword())) {
+                report.addConflict(row, user.getUsername(), REASON_INVALID);
+                continue;
+            }
+            // duplicates within the same batch, duplicates across batches are found by the database check
+            if (batch.putIfAbsent(user.getUsername(), row) != null) {
+                report.addConflict(row, user.getUsername(), REASON_DUPLICATE);
+                continue;
+            }
+            batchUsers.put(user.getUsername(), user);
+
+            if (batch.size() == batchSize) {
+                importBatch(batch, batchUsers, report);
+                batch.clear();
+                batchUsers.clear();
+            }
+        }
+        importBatch(batch, batchUsers, report);
+
+        log.info("Imported {} users, {} rows could not be imported", report.getCreated(), report.getConflicted());
+        return report;
+    }
+
+    private void importBatch(Map<String, Long> rows, Map<String, User> users, UserImportReport report) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        Set<String> existingUsernames = userService.findExistingUsernames(rows.keySet());
+
+        List<User> newUsers = new ArrayList<>(rows.size());
+        List<Long> newRows = new ArrayList<>(rows.size());
+        for (Map.Entry<String, Long> entry : rows.entrySet()) {
+            if (existingUsernames.contains(entry.getKey())) {
+                report.addConflict(entry.getValue(), entry.getKey(), REASON_DUPLICATE);
+            }
+            else {
+                newUsers.add(users.get(entry.getKey()));
+                newRows.add(entry.getValue());
+            }
+        }
+        if (newUsers.isEmpty()) {
+            return;
+        }
+
+        List<String> rawPasswords = new ArrayList<>(newUsers.size());
+        for (User newUser : newUsers) {
+            rawPasswords.add(newUser.getPassword());
+        }
+        List<String> hashes = passwordHasher.hashAll(rawPasswords);
+        for (int i = 0; i < newUsers.size(); i++) {
+            newUsers.get(i).setPassword(hashes.get(i));
+        }
+
+        try {
+            userService.createUsers(newUsers);
+            report.addCreated(newUsers.size());
+        }
+        catch (DataIntegrityViolationException e) {
+            // someone signed up with one of the usernames in the meantime -> find out which row it was
+            log.debug("Batch insert failed, retrying the batch row by row", e);
+            for (int i = 0; i < newUsers.size(); i++) {
+                importSingle(newUsers.get(i), newRows.get(i), report);
+            }
+        }
+    }
+
+    private void importSingle(User user, long row, UserImportReport report) {
+        user.setId(null);
+        user.setVersion(null);
+        try {
+            userService.createUsers(Collections.singletonList(user));
+            report.addCreated(1);
+        }
+        catch (DataIntegrityViolationException e) {
+            report.addConflict(row, user.getUsername(), REASON_DUPLICATE);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
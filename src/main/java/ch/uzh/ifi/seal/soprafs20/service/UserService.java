@@ -1,155 +1,681 @@
 package ch.uzh.ifi.seal.soprafs20.service;
 
+import ch.uzh.ifi.seal.soprafs20.config.ReplicaRoutingDataSource;
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.exceptions.SopraServiceException;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 /**
  * User Service
  * This class is the "worker" and responsible for all functionality related to the user
  * (e.g., it creates, modifies, deletes, finds). The result will be passed back to the caller.
+ * Every public operation is timed as user.service, tagged with the method name.
+ * Reads run in read-only transactions: Spring switches the Hibernate session to FlushMode.MANUAL for them,
+ * and they return UserSummary projections instead of managed entities.
  */
 @Service
 @Transactional
 public class UserService {
 
+    // the unique constraint on USER.USERNAME, see V1__create_user.sql
+    private static final String USERNAME_CONSTRAINT = "UK_USER_USERNAME";
+
+    // H2 does not wait for a concurrent, uncommitted insert of the same unique key, it fails with this error instead
+    // this says nothing about whether the username is taken, the other insert may still be rolled back
+    private static final int H2_CONCURRENT_UPDATE = 90131;
+
     private final Logger log = LoggerFactory.getLogger(UserService.class);
 
     private final UserRepository userRepository;
 
+    private final SessionCache sessionCache;
+
+    private final PasswordHasher passwordHasher;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final PresenceRegistry presenceRegistry;
+
+    private final StatusWriteBehind statusWriteBehind;
+
+    private final UsernameIndex usernameIndex;
+
+    private final SessionTokens sessionTokens;
+
+    private final ClusterSessions clusterSessions;
+
+    private final UserVersionTracker userVersionTracker;
+
+    // concurrent reads of the same user share one load
+    private final SingleFlight<Long, UserSummary> userLoads = new SingleFlight<>();
+
+    // for the methods that must not hold a connection all the way through, see streamUsers, createUser and login
+    private final TransactionTemplate transaction;
+
+    private final TransactionTemplate readOnlyTransaction;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${users.page.default-size:100}")
+    private int defaultPageSize;
+
+    @Value("${users.page.max-size:1000}")
+    private int maxPageSize;
+
+    @Value("${users.stream.batch-size:500}")
+    private int streamBatchSize;
+
+    @Value("${users.session.touch-interval-seconds:60}")
+    private long touchIntervalSeconds;
+
+    @Value("${users.search.default-limit:10}")
+    private int defaultSearchLimit;
+
+    @Value("${users.signup.max-attempts:10}")
+    private int signUpAttempts;
+
+
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+    public UserService(@Qualifier("userRepository") UserRepository userRepository, SessionCache sessionCache,
+                       PasswordHasher passwordHasher, ApplicationEventPublisher eventPublisher,
+                       PresenceRegistry presenceRegistry, StatusWriteBehind statusWriteBehind,
+                       UsernameIndex usernameIndex, SessionTokens sessionTokens, ClusterSessions clusterSessions,
+                       UserVersionTracker userVersionTracker, PlatformTransactionManager transactionManager) {
         this.userRepository = userRepository;
+        this.sessionCache = sessionCache;
+        this.passwordHasher = passwordHasher;
+        this.eventPublisher = eventPublisher;
+        this.presenceRegistry = presenceRegistry;
+        this.statusWriteBehind = statusWriteBehind;
+        this.usernameIndex = usernameIndex;
+        this.sessionTokens = sessionTokens;
+        this.clusterSessions = clusterSessions;
+        this.userVersionTracker = userVersionTracker;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
 
     /***
      * finds all users in the userRepository and returns a List object containing all users
-     * @return List<User>
+     * only the columns of the API are selected, no entities are loaded
+     * @return List<UserSummary>
+     */
+    @Timed("user.service")
+    @Transactional(readOnly = true)
+    public List<UserSummary> getUsers() {
+        return statusWriteBehind.applyAll(this.userRepository.findAllSummaries());
+    }
+
+    /***
+     * returns at most limit users whose id is greater than the given cursor, ordered by id
+     * a null cursor starts at the beginning, a null limit falls back to the configured default page size
+     * @param after id of the last user of the previous page
+     * @param limit requested page size, capped at the configured maximum
+     * @return List<UserSummary>
+     */
+    @Timed("user.service")
+    @Transactional(readOnly = true)
+    public List<UserSummary> getUsersAfter(Long after, Integer limit) {
+        return statusWriteBehind.applyAll(
+                this.userRepository.findSummariesAfter(after == null ? 0L : after, PageRequest.of(0, pageSize(limit))));
+    }
+
+    /***
+     * returns at most limit online users whose id is greater than the given cursor, ordered by id
+     * the ids come from the PresenceRegistry, only the users of the page are loaded from the database
+     * ids the database no longer has as online are skipped and the next ones are fetched, so a page is only
+     * shorter than limit when there are no more online users
+     * @param after id of the last user of the previous page
+     * @param limit requested page size, capped at the configured maximum
+     * @return List<UserSummary>
      */
-    public List<User> getUsers() {
-        return this.userRepository.findAll();
+    @Timed("user.service")
+    @Transactional(readOnly = true)
+    public List<UserSummary> getOnlineUsersAfter(Long after, Integer limit) {
+        int pageSize = pageSize(limit);
+        long cursor = after == null ? 0L : after;
+        List<UserSummary> onlineUsers = new ArrayList<>(pageSize);
+
+        while (onlineUsers.size() < pageSize) {
+            int missing = pageSize - onlineUsers.size();
+            List<Long> onlineIds = presenceRegistry.getOnlineUserIds(cursor, missing);
+            if (onlineIds.isEmpty()) {
+                break;
+            }
+            for (UserSummary user : statusWriteBehind.applyAll(this.userRepository.findSummariesByIds(onlineIds))) {
+                if (user.getStatus() == UserStatus.ONLINE) {
+                    onlineUsers.add(user);
+                }
+                else if (!ReplicaRoutingDataSource.isReadingFromReplica()) {
+                    // a logout and a login of the same user were applied out of order -> the database wins
+                    // (unless it was read from a replica, which may simply not have the login yet)
+                    presenceRegistry.markOffline(user.getId());
+                }
+            }
+            if (onlineIds.size() < missing) {
+                // the registry has no more ids after the cursor
+                break;
+            }
+            cursor = onlineIds.get(onlineIds.size() - 1);
+        }
+        return onlineUsers;
     }
 
     /***
-     * checks if the user already exists, if not it crates a new user with UserStatus.OFFLINE and puts it in the userRepository
+     * returns the number of online users without querying the database
+     * @return int
+     */
+    @Timed("user.service")
+    public int countOnlineUsers() {
+        return presenceRegistry.countOnline();
+    }
+
+    /***
+     * returns at most limit users whose username starts with the prefix (ignoring case), ordered by username
+     * the users come from the UsernameIndex without a database query (and without a transaction);
+     * with the index disabled the USER table is searched with LIKE
+     * @param prefix
+     * @param limit requested number of results, capped at the configured maximum page size
+     * @return List<UserSummary>
+     */
+    @Timed("user.service")
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public List<UserSummary> searchUsers(String prefix, Integer limit) {
+        if (prefix == null || prefix.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The search prefix must not be empty!");
+        }
+        int resultSize = pageSize(limit == null ? defaultSearchLimit : limit);
+
+        if (!usernameIndex.isEnabled()) {
+            return statusWriteBehind.applyAll(
+                    this.userRepository.findSummariesByUsernameLike(likePattern(prefix), PageRequest.of(0, resultSize)));
+        }
+
+        return statusWriteBehind.applyAll(usernameIndex.search(prefix, resultSize));
+    }
+
+    /***
+     * walks through all users page by page and hands them to the consumer one at a time
+     * the pages are projections, so nothing accumulates in the persistence context however many users there are
+     * every page is read in a short transaction of its own and handed to the consumer after it has ended,
+     * so a slow consumer (e.g. a client reading the stream slowly) does not hold a database connection
+     * @param consumer
+     */
+    @Timed("user.service")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void streamUsers(Consumer<UserSummary> consumer) {
+        Long after = 0L;
+        List<UserSummary> page;
+
+        do {
+            Long pageAfter = after;
+            page = readOnlyTransaction.execute(
+                    status -> this.userRepository.findSummariesAfter(pageAfter, PageRequest.of(0, streamBatchSize)));
+            for (UserSummary user : page) {
+                consumer.accept(statusWriteBehind.apply(user));
+                after = user.getId();
+            }
+        } while (page.size() == streamBatchSize);
+    }
+
+    private static String likePattern(String prefix) {
+        // the prefix is taken literally, its wildcards are escaped
+        return prefix.toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_") + "%";
+    }
+
+    private int pageSize(Integer limit) {
+        int pageSize = limit == null ? defaultPageSize : limit;
+        if (pageSize < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The page size must be positive!");
+        }
+        return Math.min(pageSize, maxPageSize);
+    }
+
+    /***
+     * creates a new user with UserStatus.OFFLINE and puts it in the userRepository
+     * only a salted hash of the password is stored, it is computed before the transaction is opened
+     * the username is not looked up beforehand, the unique constraint of the database rejects a taken one,
+     * which also holds when two sign-ups with the same username run at the same time
+     * an insert that only collided with another uncommitted insert is retried, until one of them has committed
      * @param newUser
      * @return User newUser
+     * @throws ResponseStatusException CONFLICT if the username is taken
+     * @throws ResponseStatusException SERVICE_UNAVAILABLE if the insert kept colliding
      */
+    @Timed("user.service")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User createUser(User newUser) {
-        checkIfUserExists(newUser);
-
+        if (newUser.getPassword() == null || newUser.getPassword().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The password must not be empty!");
+        }
+        newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
         newUser.setStatus(UserStatus.OFFLINE);
 
-        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
-        Date date = new Date();
-        String now = formatter.format(date);
-        newUser.setCreationDate(now);
+        // ids and versions are assigned by the database, a new user must not bring its own
+        newUser.setId(null);
+        newUser.setVersion(null);
 
+        newUser.setCreationDate(LocalDate.now());
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transaction.execute(status -> insertUser(newUser));
+            }
+            catch (DataAccessException e) {
+                if (!isConcurrentInsert(e)) {
+                    throw e;
+                }
+                if (attempt >= signUpAttempts) {
+                    throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The sign-up collided with others, try again later!");
+                }
+                // the failed attempt may have assigned an id, the next one starts over
+                newUser.setId(null);
+                newUser.setVersion(null);
+                backOff(attempt);
+            }
+        }
+    }
+
+    private User insertUser(User newUser) {
         // saves the given entity but data is only persisted in the database once flush() is called
-        newUser = userRepository.save(newUser);
+        User savedUser = userRepository.save(newUser);
+        try {
+            userRepository.flush();
+        }
+        catch (DataAccessException e) {
+            if (isUsernameTaken(e)) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "The username provided is not unique!");
+            }
+            throw e;
+        }
+        eventPublisher.publishEvent(UserEvent.of(UserEvent.Type.CREATED, savedUser));
+
+        log.debug("Created Information for User: {}", savedUser);
+        return savedUser;
+    }
+
+    /**
+     * returns which of the given usernames are already taken, in a single query
+     * @param usernames
+     * @return Set<String>
+     */
+    @Timed("user.service")
+    public Set<String> findExistingUsernames(Collection<String> usernames) {
+        if (usernames.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(userRepository.findExistingUsernames(usernames));
+    }
+
+    /**
+     * Inserts a batch of new users whose usernames have already been checked and whose passwords are already hashed.
+     * The inserts are sent as JDBC batches, afterwards the persistence context is cleared so a long import does not
+     * keep every imported user in memory.
+     * @param newUsers
+     * @see UserImportService
+     */
+    @Timed("user.service")
+    public void createUsers(List<User> newUsers) {
+        LocalDate now = LocalDate.now();
+        for (User newUser : newUsers) {
+            newUser.setStatus(UserStatus.OFFLINE);
+            newUser.setCreationDate(now);
+        }
+        userRepository.saveAll(newUsers);
         userRepository.flush();
+        entityManager.clear();
+        for (User newUser : newUsers) {
+            eventPublisher.publishEvent(UserEvent.of(UserEvent.Type.CREATED, newUser));
+        }
 
-        log.debug("Created Information for User: {}", newUser);
-        return newUser;
+        log.debug("Imported {} users", newUsers.size());
     }
 
     /**
-     * This is a helper method that will check the uniqueness criteria of the username and the name
-     * defined in the User entity. The method will do nothing if the input is unique and throw an error otherwise.
-     * @param userToBeCreated
-     * @throws SopraServiceException
+     * This is a helper method that tells whether the insert of a new user failed because of the uniqueness criteria
+     * of the username defined in the User entity.
+     * @param insertFailure
+     * @return boolean
      * @see User
      */
-    private void checkIfUserExists(User userToBeCreated) {
-        User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
+    private static boolean isUsernameTaken(DataAccessException insertFailure) {
+        String message = insertFailure.getMostSpecificCause().getMessage();
+        return insertFailure instanceof DataIntegrityViolationException && message != null
+                && message.toUpperCase(Locale.ROOT).contains(USERNAME_CONSTRAINT);
+    }
+
+    // the insert ran into another transaction's uncommitted insert of the same username
+    private static boolean isConcurrentInsert(DataAccessException insertFailure) {
+        Throwable cause = insertFailure.getMostSpecificCause();
+        return cause instanceof SQLException && ((SQLException) cause).getErrorCode() == H2_CONCURRENT_UPDATE;
+    }
 
-        if (userByUsername != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, "The username provided is not unique!");
+    // when two inserts see each other both fail, a random delay keeps them from colliding again
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, 5L * attempt + 1));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The sign-up was interrupted, try again later!");
         }
     }
 
+    /**
+     * Verifies the given password against the stored hash. Unknown usernames are checked against a dummy hash,
+     * so the response time does not reveal whether a username exists.
+     * The user is read in a short read-only transaction, the password is verified after it has ended.
+     * @param userToBeFound
+     * @return User a detached copy of the user
+     * @throws ResponseStatusException UNAUTHORIZED if the credentials do not match
+     */
     private User findUserByCredentials(User userToBeFound) {
-        User userByUsername = userRepository.findByUsername(userToBeFound.getUsername());
+        User userByUsername = readOnlyTransaction.execute(status -> userRepository.findByUsername(userToBeFound.getUsername()));
+        String storedHash = userByUsername == null ? null : userByUsername.getPassword();
 
-        if (userByUsername != null && userByUsername.getPassword().equals(userToBeFound.getPassword())) {
-            return userByUsername;
-        }
-        else {
+        if (!passwordHasher.matches(userToBeFound.getPassword(), storedHash)) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "The login failed because credentials are incorrect!");
         }
+        return userByUsername;
     }
 
+    /***
+     * logs the user in, the password is checked (and re-hashed if needed) before the transaction is opened,
+     * so no request holds a database connection while it waits for the PasswordHasher
+     * @param userToBeLoggedIn
+     * @return User
+     */
+    @Timed("user.service")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User login(User userToBeLoggedIn) {
-        User userFound = findUserByCredentials(userToBeLoggedIn);
+        User verifiedUser = findUserByCredentials(userToBeLoggedIn);
+        // hashes created with an outdated cost (or plaintext passwords from before hashing) are replaced on success
+        String newHash = passwordHasher.needsRehash(verifiedUser.getPassword())
+                ? passwordHasher.hash(userToBeLoggedIn.getPassword()) : null;
+
+        return transaction.execute(status -> loginVerified(verifiedUser, newHash));
+    }
+
+    private User loginVerified(User verifiedUser, String newHash) {
+        User userFound = userRepository.findById(verifiedUser.getId()).orElse(null);
+        if (userFound == null || !Objects.equals(userFound.getPassword(), verifiedUser.getPassword())) {
+            // deleted or given a new password since the password was checked
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "The login failed because credentials are incorrect!");
+        }
+        if (newHash != null) {
+            userFound.setPassword(newHash);
+        }
+        String token = sessionTokens.issue(userFound.getId());
 
-        if(userFound.getStatus() == UserStatus.ONLINE) {
+        // the session store decides, across all nodes, whether the user is already logged in
+        // the checks below only cover sessions from before a restart, a failed one closes the session again
+        if (!clusterSessions.open(userFound.getId(), token)) {
             throw new ResponseStatusException(HttpStatus.NO_CONTENT, "Already logged in!");
         }
 
-        userFound.setToken(UUID.randomUUID().toString());
-        userFound.setStatus(UserStatus.ONLINE);
+        if (statusWriteBehind.isEnabled()) {
+            // a re-hashed password is still written right away, the status and token are only staged
+            userRepository.flush();
+            entityManager.detach(userFound);
+            if (!statusWriteBehind.stage(userFound, UserStatus.ONLINE, token)) {
+                throw new ResponseStatusException(HttpStatus.NO_CONTENT, "Already logged in!");
+            }
+            userFound.setToken(token);
+            userFound.setStatus(UserStatus.ONLINE);
+        }
+        else {
+            if (userFound.getStatus() == UserStatus.ONLINE) {
+                // the session store has no session, this node's cache may not have seen a logout on another node yet
+                entityManager.refresh(userFound);
+            }
+            if(userFound.getStatus() == UserStatus.ONLINE) {
+                throw new ResponseStatusException(HttpStatus.NO_CONTENT, "Already logged in!");
+            }
 
-        userRepository.save(userFound);
+            userFound.setToken(token);
+            userFound.setStatus(UserStatus.ONLINE);
+            userFound.setLastSeen(Instant.now());
+
+            userRepository.save(userFound);
+        }
+        if (!sessionTokens.isSigned()) {
+            sessionCache.put(userFound.getToken(), userFound.getId());
+        }
+        eventPublisher.publishEvent(UserEvent.of(UserEvent.Type.STATUS, userFound));
         return userFound;
     }
 
 
-    public User getUserById(Long id){
-        User userById = userRepository.getOne(id);
-        if (userById != null){
-            return userById;
-        }
-        else {
+    /***
+     * returns the user with the given id
+     * served from the second-level cache, only the first read of a user (or one after a change) hits the database;
+     * concurrent calls for the same id share that read, and only the one that loads holds a connection meanwhile
+     * @param id
+     * @return UserSummary
+     * @throws ResponseStatusException NOT_FOUND if there is no such user
+     */
+    @Timed("user.service")
+    @Transactional(readOnly = true, propagation = Propagation.SUPPORTS)
+    public UserSummary getUserById(Long id){
+        // a read that started after a committed change never joins a load from before it
+        UserSummary user = userLoads.load(id, userVersionTracker.getCollectionVersion(),
+                () -> userRepository.findById(id).map(UserSummary::of).orElse(null));
+        if (user == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
         }
+        return statusWriteBehind.apply(user);
+    }
+
+    /***
+     * returns the users with the given ids, in the order of the ids, with a single query
+     * duplicate ids are returned once, unknown ids are left out
+     * @param ids at most the configured maximum page size
+     * @return List<UserSummary>
+     */
+    @Timed("user.service")
+    @Transactional(readOnly = true)
+    public List<UserSummary> getUsersByIds(List<Long> ids) {
+        Set<Long> distinctIds = new LinkedHashSet<>(ids);
+        if (distinctIds.size() > maxPageSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("At most %d users can be requested at once!", maxPageSize));
+        }
+        if (distinctIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, UserSummary> usersById = new HashMap<>();
+        for (UserSummary user : this.userRepository.findSummariesByIds(distinctIds)) {
+            usersById.put(user.getId(), user);
+        }
+        List<UserSummary> users = new ArrayList<>(usersById.size());
+        for (Long id : distinctIds) {
+            UserSummary user = usersById.get(id);
+            if (user != null) {
+                users.add(statusWriteBehind.apply(user));
+            }
+        }
+        return users;
     }
 
+    // read by the metrics, no transaction needed
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public SingleFlight<Long, UserSummary> getUserLoads() {
+        return userLoads;
+    }
+
+    @Timed("user.service")
     public User logout(User userToLogOut){
-        User userByToken = userRepository.findByToken(userToLogOut.getToken());
+        User userByToken = findUserByToken(userToLogOut.getToken());
 
-        userByToken.setStatus(UserStatus.OFFLINE);
-        userByToken.setToken(null);
+        // drops the token from the caches of all nodes
+        clusterSessions.close(userByToken.getId(), userToLogOut.getToken());
+        if (statusWriteBehind.isEnabled()) {
+            entityManager.detach(userByToken);
+            statusWriteBehind.stage(userByToken, UserStatus.OFFLINE, null);
+            userByToken.setStatus(UserStatus.OFFLINE);
+            userByToken.setToken(null);
+        }
+        else {
+            userByToken.setStatus(UserStatus.OFFLINE);
+            userByToken.setToken(null);
 
-        userRepository.save(userByToken);
+            userRepository.save(userByToken);
+        }
+        eventPublisher.publishEvent(UserEvent.of(UserEvent.Type.STATUS, userByToken));
         return userByToken;
     }
 
-    public User edit(User userToEdit) {
-        User userById = userRepository.getOne(userToEdit.getId());
+    /**
+     * Keeps the session of the token alive, see SessionReaper. To save writes, lastSeen is only refreshed
+     * once it is older than the touch interval. It is excluded from the @Version, so the ETag does not change.
+     * @param userWithToken
+     * @throws ResponseStatusException UNAUTHORIZED if no user holds the token
+     */
+    @Timed("user.service")
+    public void heartbeat(User userWithToken) {
+        User userByToken = findUserByToken(userWithToken.getToken());
+        Instant now = Instant.now();
 
-        if (userById != null){
-            // Todo: regular expression
-            if(userToEdit.getUsername() != null){
-                userById.setUsername(userToEdit.getUsername());
+        if (userByToken.getLastSeen() == null || userByToken.getLastSeen().isBefore(now.minusSeconds(touchIntervalSeconds))) {
+            applyStagedStatus(userByToken);
+            userByToken.setLastSeen(now);
+            userRepository.save(userByToken);
+        }
+    }
+
+    /**
+     * Resolves the user a token belongs to. A signed token is accepted on its own once SessionTokens has verified it
+     * (signature, expiry, revocations), the stored token is not compared. Only the user it names is loaded, by id
+     * and usually from the second-level cache, because the callers change that user.
+     * For opaque tokens the session cache is asked first, then the session store (for logins on other nodes),
+     * only a miss (or an entry that no longer matches the stored token) results in a token query.
+     * Tokens staged by the StatusWriteBehind take precedence over the stored ones.
+     * @param token
+     * @return User
+     * @throws ResponseStatusException UNAUTHORIZED if no user holds the token
+     */
+    private User findUserByToken(String token) {
+        if (sessionTokens.isSigned()) {
+            // logouts and expired sessions (see SessionReaper) are revoked through ClusterSessions
+            Long userId = sessionTokens.verify(token);
+            User userById = userId == null ? null : userRepository.findById(userId).orElse(null);
+            if (userById == null) {
+                throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "The token is not valid!");
             }
-            if(userToEdit.getBirthday() != null){
-                String oldFormat = userToEdit.getBirthday();
+            return userById;
+        }
 
-                //change from 2020-03-07 to 04.03.2020
-                StringBuilder newFromat = new StringBuilder();
-                newFromat.append(oldFormat.substring(8,10) + "." + oldFormat.substring(5,7) + "." + oldFormat.substring(0,4));
+        Long cachedUserId = sessionCache.get(token);
+        if (cachedUserId == null) {
+            cachedUserId = clusterSessions.findUserId(token);
+        }
+        if (cachedUserId == null) {
+            cachedUserId = statusWriteBehind.findUserIdByToken(token);
+        }
 
-                userById.setBirthday(newFromat.toString());
+        if (cachedUserId != null) {
+            User userById = userRepository.findById(cachedUserId).orElse(null);
+            if (holdsToken(userById, token)) {
+                return userById;
             }
-            userRepository.save(userById);
-            return userById;
+            sessionCache.invalidate(token);
         }
 
-        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        User userByToken = token == null ? null : userRepository.findByToken(token);
+        // the stored token might already have been replaced by a staged logout or login
+        if (userByToken == null || !token.equals(statusWriteBehind.currentToken(userByToken))) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "The token is not valid!");
+        }
+        sessionCache.put(token, userByToken.getId());
+        return userByToken;
+    }
+
+    /**
+     * The user comes from the second-level cache, which may not have seen a login on another node yet.
+     * So before a token is turned down, the row is read again.
+     */
+    private boolean holdsToken(User user, String token) {
+        if (user == null) {
+            return false;
+        }
+        if (!token.equals(statusWriteBehind.currentToken(user))) {
+            entityManager.refresh(user);
+        }
+        return token.equals(statusWriteBehind.currentToken(user));
+    }
+
+    @Timed("user.service")
+    public User edit(User userToEdit) {
+        User userById = userRepository.findById(userToEdit.getId())
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+
+        // Todo: regular expression
+        sessionCache.invalidate(statusWriteBehind.currentToken(userById));
+        applyStagedStatus(userById);
+
+        if(userToEdit.getUsername() != null){
+            userById.setUsername(userToEdit.getUsername());
+        }
+        // the birthday has already been parsed by the DTOMapper
+        if(userToEdit.getBirthday() != null){
+            userById.setBirthday(userToEdit.getBirthday());
+        }
+        userRepository.save(userById);
+        eventPublisher.publishEvent(UserEvent.of(UserEvent.Type.PROFILE, userById));
+        return userById;
+    }
+
+    /**
+     * the whole row is written on update, so it has to carry the staged status and token instead of the stored ones
+     */
+    private void applyStagedStatus(User user) {
+        UserStatus status = statusWriteBehind.currentStatus(user);
+        String token = statusWriteBehind.currentToken(user);
+        user.setStatus(status);
+        user.setToken(token);
     }
 }
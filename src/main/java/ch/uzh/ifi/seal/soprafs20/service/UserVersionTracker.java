@@ -0,0 +1,91 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Version Tracker
+ * This class provides the ETags of GET /users and GET /users/{id}, so repeated reads can be answered with
+ * 304 Not Modified without loading or serializing a single user.
+ * The ETag of a user is derived from its @Version column. The versions of recently read users are kept in memory
+ * and dropped as soon as a committed UserEvent reports a change of that user. Once max-size users are kept,
+ * the one read least recently makes room for the next.
+ * The ETag of the user list is a counter that is incremented on every committed UserEvent (create, edit, login, logout).
+ * It is prefixed with an id of this run, so ETags handed out before a restart never match again.
+ */
+@Component
+public class UserVersionTracker {
+
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+
+    private final AtomicLong collectionVersion = new AtomicLong();
+
+    private final Map<Long, Long> userVersions;
+
+    public UserVersionTracker(@Value("${users.etag.max-size:10000}") int maxSize) {
+        // in access order, so the eldest entry is the one read least recently
+        this.userVersions = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        // the counter has to move before the entry is dropped, see remember
+        collectionVersion.incrementAndGet();
+        userVersions.remove(userEvent.getUserId());
+    }
+
+    /**
+     * @return the current counter, to be passed to remember once the user has been read
+     */
+    public long getCollectionVersion() {
+        return collectionVersion.get();
+    }
+
+    public String getCollectionETag() {
+        return "\"" + epoch + "-" + collectionVersion.get() + "\"";
+    }
+
+    /**
+     * @param userId
+     * @return the ETag of the user if its version is known, null otherwise
+     */
+    public String getUserETag(Long userId) {
+        Long version = userVersions.get(userId);
+        return version == null ? null : eTagOf(userId, version);
+    }
+
+    /**
+     * Remembers the version of a user that has just been read. If any user changed since the read started
+     * (readStartedAt is outdated), the version might already be stale and is not kept.
+     * @param userId
+     * @param version the @Version value that was read
+     * @param readStartedAt value of getCollectionVersion before the user was read
+     * @return the ETag of the user
+     */
+    public String remember(Long userId, Long version, long readStartedAt) {
+        if (version == null) {
+            version = 0L;
+        }
+        userVersions.put(userId, version);
+        if (collectionVersion.get() != readStartedAt) {
+            userVersions.remove(userId, version);
+        }
+        return eTagOf(userId, version);
+    }
+
+    private static String eTagOf(Long userId, Long version) {
+        return "\"" + userId + "-" + version + "\"";
+    }
+}
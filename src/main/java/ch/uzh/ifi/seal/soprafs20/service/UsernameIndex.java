@@ -0,0 +1,153 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Username Index
+ * Keeps all usernames in memory, sorted case-insensitively, so a prefix search is a seek into a skip list followed
+ * by reading the next k entries: O(log n + k), without touching the database.
+ * A key is the lower-case username followed by the username itself, which keeps "Bob" and "bob" apart.
+ * Each entry holds the public fields of the user (its summary), so the results of a search are
+ * complete and need no query either.
+ * The index follows the committed creates, edits and status changes of the UserService and is rebuilt from the
+ * database on startup.
+ * When it is disabled (users.search.index-enabled=false) it stays empty and the UserService searches with LIKE instead.
+ */
+@Component
+public class UsernameIndex {
+
+    private static final char SEPARATOR = '\u0000';
+
+    private final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+    private final UserRepository userRepository;
+
+    private final boolean enabled;
+
+    private final int rebuildBatchSize;
+
+    private final NavigableMap<String, UserSummary> usersByKey = new ConcurrentSkipListMap<>();
+
+    // user id -> current key, to find the old entry when a user is renamed
+    private final Map<Long, String> keysByUserId = new ConcurrentHashMap<>();
+
+    public UsernameIndex(@Qualifier("userRepository") UserRepository userRepository,
+                         @Value("${users.search.index-enabled:true}") boolean enabled,
+                         @Value("${users.search.rebuild-batch-size:1000}") int rebuildBatchSize) {
+        this.userRepository = userRepository;
+        this.enabled = enabled;
+        this.rebuildBatchSize = rebuildBatchSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        if (!enabled) {
+            return;
+        }
+        if (userEvent.getType() == UserEvent.Type.STATUS) {
+            updateStatus(userEvent.getUserId(), userEvent.getStatus());
+        }
+        else {
+            put(new UserSummary(userEvent.getUserId(), userEvent.getUsername(), userEvent.getStatus(),
+                    userEvent.getBirthday(), userEvent.getCreationDate(), null));
+        }
+    }
+
+    /**
+     * Reads all usernames page by page. Users that were created or renamed in the meantime are already indexed
+     * with their latest name, the scan does not overwrite them.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        Long after = 0L;
+        List<UserSummary> page;
+        do {
+            page = userRepository.findSummariesAfter(after, PageRequest.of(0, rebuildBatchSize));
+            for (UserSummary user : page) {
+                keysByUserId.computeIfAbsent(user.getId(), userId -> {
+                    String key = keyOf(user.getUsername());
+                    usersByKey.put(key, user);
+                    return key;
+                });
+                after = user.getId();
+            }
+        } while (page.size() == rebuildBatchSize);
+
+        log.info("Username index rebuilt, {} users", keysByUserId.size());
+    }
+
+    public void put(UserSummary user) {
+        String key = keyOf(user.getUsername());
+        keysByUserId.compute(user.getId(), (id, oldKey) -> {
+            if (oldKey != null && !oldKey.equals(key)) {
+                usersByKey.computeIfPresent(oldKey, (k, oldUser) -> oldUser.getId().equals(id) ? null : oldUser);
+            }
+            usersByKey.put(key, user);
+            return key;
+        });
+    }
+
+    private void updateStatus(Long userId, UserStatus status) {
+        // under the lock of the user's entry in keysByUserId, like a rename
+        keysByUserId.computeIfPresent(userId, (id, key) -> {
+            usersByKey.computeIfPresent(key, (k, user) -> new UserSummary(user.getId(), user.getUsername(), status,
+                    user.getBirthday(), user.getCreationDate(), user.getVersion()));
+            return key;
+        });
+    }
+
+    /**
+     * @param prefix matched case-insensitively
+     * @param limit maximum number of users returned
+     * @return the users whose username starts with the prefix, ordered by username
+     */
+    public List<UserSummary> search(String prefix, int limit) {
+        String lowerCasePrefix = prefix.toLowerCase(Locale.ROOT);
+        List<UserSummary> users = new ArrayList<>(Math.min(limit, 64));
+
+        for (Map.Entry<String, UserSummary> entry : usersByKey.tailMap(lowerCasePrefix, true).entrySet()) {
+            if (users.size() >= limit || !entry.getKey().startsWith(lowerCasePrefix)) {
+                break;
+            }
+            // the prefix must not run into the second half of the key
+            if (entry.getKey().indexOf(SEPARATOR) >= lowerCasePrefix.length()) {
+                users.add(entry.getValue());
+            }
+        }
+        return users;
+    }
+
+    public int size() {
+        return keysByUserId.size();
+    }
+
+    private static String keyOf(String username) {
+        return username.toLowerCase(Locale.ROOT) + SEPARATOR + username;
+    }
+}
@@ -0,0 +1,22 @@
+-- Schema of the User entity, validated against the entity on every start (spring.jpa.hibernate.ddl-auto=validate)
+
+-- ids are handed out in blocks of 50, must match the allocationSize of the sequence generator in User
+create sequence USER_SEQUENCE start with 1 increment by 50;
+
+create table USER (
+    ID bigint not null,
+    BIRTHDAY date,
+    CREATION_DATE date not null,
+    PASSWORD varchar(255) not null,
+    STATUS integer not null,
+    TOKEN varchar(255),
+    USERNAME varchar(255) not null,
+    VERSION bigint,
+    primary key (ID),
+    -- the unique constraints double as the indexes of findByUsername, findExistingUsernames and findByToken
+    constraint UK_USER_USERNAME unique (USERNAME),
+    constraint UK_USER_TOKEN unique (TOKEN)
+);
+
+-- presence queries filter by status and seek by id (findIdsByStatusAfter)
+create index IDX_USER_STATUS_ID on USER (STATUS, ID);
@@ -0,0 +1,5 @@
+-- last login or heartbeat of a user, the SessionReaper logs out users that have been idle for too long
+alter table USER add column LAST_SEEN timestamp;
+
+-- the reaper looks for online users with an old LAST_SEEN
+create index IDX_USER_STATUS_LAST_SEEN on USER (STATUS, LAST_SEEN);
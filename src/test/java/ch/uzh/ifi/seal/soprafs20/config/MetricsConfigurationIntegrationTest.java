@@ -0,0 +1,35 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that the service timers, error counters and pool gauges end up on the Prometheus endpoint.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class MetricsConfigurationIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    public void prometheusEndpoint_exposesUserMetrics() throws Exception {
+        // a request for a user that does not exist -> timed service call + NOT_FOUND error
+        mockMvc.perform(get("/users/{id}", Long.MAX_VALUE)).andExpect(status().isNotFound());
+
+        mockMvc.perform(get("/actuator/prometheus")).andExpect(status().isOk())
+                .andExpect(content().string(containsString("user_service_seconds")))
+                .andExpect(content().string(containsString("user_errors_total{status=\"NOT_FOUND\"")))
+                .andExpect(content().string(containsString("user_session_cache_requests_total")))
+                .andExpect(content().string(containsString("hikaricp_connections")));
+    }
+}
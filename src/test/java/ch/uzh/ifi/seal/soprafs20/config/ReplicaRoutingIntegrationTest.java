@@ -0,0 +1,111 @@
+package ch.uzh.ifi.seal.soprafs20.config;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.servlet.http.Cookie;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * ReplicaRoutingIntegrationTest
+ * Runs the application against two more embedded H2 databases as replicas. Nothing replicates between them, each
+ * replica holds a user of its own, which shows where a request has read from.
+ */
+@SpringBootTest(properties = {
+        "users.datasource.replica-urls=" + ReplicaRoutingIntegrationTest.REPLICA_1 + "," + ReplicaRoutingIntegrationTest.REPLICA_2,
+        "users.datasource.replica-balancing=round-robin"})
+@AutoConfigureMockMvc
+public class ReplicaRoutingIntegrationTest {
+
+    static final String REPLICA_1 = "jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1";
+
+    static final String REPLICA_2 = "jdbc:h2:mem:replica2;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @BeforeAll
+    public static void setupReplicas() throws SQLException {
+        setupReplica(REPLICA_1, "onReplica1");
+        setupReplica(REPLICA_2, "onReplica2");
+    }
+
+    @Test
+    public void getUsers_readsFromTheReplicasInTurn() throws Exception {
+        long replicaConnections = replicaRoutingDataSource.getConnectionCount("replica-0")
+                + replicaRoutingDataSource.getConnectionCount("replica-1");
+
+        Set<String> replicasRead = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            String users = getUsers(null);
+            assertNotEquals(users.contains("onReplica1"), users.contains("onReplica2"));
+            replicasRead.add(users.contains("onReplica1") ? "replica1" : "replica2");
+        }
+
+        assertEquals(Set.of("replica1", "replica2"), replicasRead);
+        assertTrue(replicaRoutingDataSource.getConnectionCount("replica-0")
+                + replicaRoutingDataSource.getConnectionCount("replica-1") >= replicaConnections + 4);
+    }
+
+    @Test
+    public void createUser_laterReadsOfTheClientGoToThePrimary() throws Exception {
+        Cookie cookie = mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\": \"writtenToPrimary\", \"password\": \"password\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getCookie("users-primary-until");
+        assertNotNull(cookie);
+
+        // the client that wrote sees its user, the replicas do not have it
+        String users = getUsers(cookie);
+        assertTrue(users.contains("writtenToPrimary"));
+        assertFalse(users.contains("onReplica1") || users.contains("onReplica2"));
+
+        assertFalse(getUsers(null).contains("writtenToPrimary"));
+    }
+
+    @Test
+    public void getUsers_cookieBeyondTheWindow_readsFromTheReplicas() throws Exception {
+        // set by the client itself, not by a write
+        Cookie forged = new Cookie("users-primary-until", String.valueOf(Long.MAX_VALUE));
+
+        String users = getUsers(forged);
+        assertTrue(users.contains("onReplica1") || users.contains("onReplica2"));
+    }
+
+    private String getUsers(Cookie cookie) throws Exception {
+        return mockMvc.perform(cookie == null ? get("/users") : get("/users").cookie(cookie))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    private static void setupReplica(String url, String username) throws SQLException {
+        Flyway.configure().dataSource(url, "sa", "").load().migrate();
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             PreparedStatement insert = connection.prepareStatement(
+                     "insert into USER (ID, CREATION_DATE, PASSWORD, STATUS, USERNAME, VERSION) values (?, current_date, 'x', 1, ?, 0)")) {
+            insert.setLong(1, Long.MAX_VALUE - 1);
+            insert.setString(2, username);
+            insert.executeUpdate();
+        }
+    }
+}
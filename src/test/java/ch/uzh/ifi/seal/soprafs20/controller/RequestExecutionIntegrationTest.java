@@ -0,0 +1,84 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.config.RequestExecutionConfiguration;
+import ch.uzh.ifi.seal.soprafs20.service.DatabaseConcurrencyLimiter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RequestExecutionIntegrationTest
+ * Sends real requests through Tomcat in the async execution mode, where the request is handed to the request executor
+ * and then dispatched back to Tomcat, and its transactions wait for their database permits. Successful requests and
+ * errors have to look exactly as in sync mode.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"users.execution.mode=async", "users.execution.async-threads=2",
+                "users.execution.database-concurrency=2", "users.execution.database-max-wait-ms=200"})
+public class RequestExecutionIntegrationTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private RequestExecutionConfiguration requestExecutionConfiguration;
+
+    @Autowired
+    private DatabaseConcurrencyLimiter databaseConcurrencyLimiter;
+
+    @Test
+    public void asyncMode_getUsers_ok() {
+        assertEquals(RequestExecutionConfiguration.Mode.ASYNC, requestExecutionConfiguration.getMode());
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/users", String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().startsWith("["));
+    }
+
+    @Test
+    public void asyncMode_unknownUser_notFound() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/users/{id}", String.class, Long.MAX_VALUE);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
+    @Test
+    public void asyncMode_manyRequests_permitsGivenBack() throws InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            assertEquals(HttpStatus.OK, restTemplate.getForEntity("/users", String.class).getStatusCode());
+            assertEquals(HttpStatus.NOT_FOUND, restTemplate.getForEntity("/users/{id}", String.class, Long.MAX_VALUE).getStatusCode());
+        }
+
+        // the permit of the last request is given back when its transaction ends, which may be just after the response
+        long deadline = System.currentTimeMillis() + 5000;
+        while (databaseConcurrencyLimiter.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, databaseConcurrencyLimiter.getActiveCount());
+    }
+
+    @Test
+    public void asyncMode_allPermitsTaken_onlyDatabaseWorkIsRejected() throws InterruptedException {
+        assertTrue(databaseConcurrencyLimiter.acquire());
+        assertTrue(databaseConcurrencyLimiter.acquire());
+        try {
+            ResponseEntity<String> users = restTemplate.getForEntity("/users", String.class);
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, users.getStatusCode());
+            assertEquals("1", users.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+            // the online count comes from memory and does not need a permit
+            assertEquals(HttpStatus.OK, restTemplate.getForEntity("/users/online/count", String.class).getStatusCode());
+        }
+        finally {
+            databaseConcurrencyLimiter.release();
+            databaseConcurrencyLimiter.release();
+        }
+    }
+}
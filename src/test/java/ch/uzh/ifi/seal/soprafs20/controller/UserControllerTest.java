@@ -3,33 +3,47 @@ package ch.uzh.ifi.seal.soprafs20.controller;
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.exceptions.SopraServiceException;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserEditDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserTokenDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.DateCodec;
+import ch.uzh.ifi.seal.soprafs20.service.LoginRateLimiter;
+import ch.uzh.ifi.seal.soprafs20.service.PresenceBroadcaster;
+import ch.uzh.ifi.seal.soprafs20.service.UserImportReport;
+import ch.uzh.ifi.seal.soprafs20.service.UserImportService;
 import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import ch.uzh.ifi.seal.soprafs20.service.UserVersionTracker;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.aspectj.lang.annotation.Before;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
-import org.springframework.test.context.event.annotation.BeforeTestClass;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.hamcrest.Matchers.*;
 import static org.mockito.BDDMockito.given;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.junit.jupiter.api.Assertions.*;
@@ -40,8 +54,11 @@ import static org.junit.jupiter.api.Assertions.*;
  * This tests if the UserController works.
  */
 @WebMvcTest(UserController.class)
+// the GlobalExceptionAdvice counts errors in the MeterRegistry
+@Import({UserVersionTracker.class, SimpleMeterRegistry.class})
 public class UserControllerTest {
-    private String now;
+    private LocalDate now = LocalDate.now();
+    private LocalDate birthday = LocalDate.of(1995, 3, 7);
     private User user;
 
     @Autowired
@@ -50,27 +67,21 @@ public class UserControllerTest {
     @MockBean
     private UserService userService;
 
-    @BeforeTestClass
-    public void init() {
-        // get current date
-        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
-        Date date = new Date();
-        now = formatter.format(date);
-    }
+    @MockBean
+    private UserImportService userImportService;
+
+    @MockBean
+    private PresenceBroadcaster presenceBroadcaster;
+
+    @MockBean
+    private LoginRateLimiter loginRateLimiter;
 
     @Test
     public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
         // given
-        User user = new User();
-        user.setPassword("difficultPassword");
-        user.setUsername("firstname@lastname");
-        user.setStatus(UserStatus.OFFLINE);
-        user.setId(1L);
-        user.setToken("lsker3-3wjls-fancyToken-slkdjf-3rwo8");
-        user.setCreationDate(now);
-        user.setBirthday("00.00.0000");
+        UserSummary user = new UserSummary(1L, "firstname@lastname", UserStatus.OFFLINE, birthday, now, 0L);
 
-        List<User> allUsers = Collections.singletonList(user);
+        List<UserSummary> allUsers = Collections.singletonList(user);
 
         // this mocks the UserService -> we define above what the userService should return when getUsers() is called
         given(userService.getUsers()).willReturn(allUsers);
@@ -83,13 +94,80 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$", hasSize(1)))
                 .andExpect(jsonPath("$[0].id", is(user.getId().intValue())))
                 .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-                .andExpect(jsonPath("$[0].password", is(user.getPassword())))
-                .andExpect(jsonPath("$[0].birthday", is(user.getBirthday())))
-                .andExpect(jsonPath("$[0].creationDate", is(user.getCreationDate())))
-                .andExpect(jsonPath("$[0].token", is(user.getToken())))
+                .andExpect(jsonPath("$[0].password").doesNotExist())
+                .andExpect(jsonPath("$[0].birthday", is("07.03.1995")))
+                .andExpect(jsonPath("$[0].creationDate", is(DateCodec.INSTANCE.format(now))))
+                .andExpect(jsonPath("$[0].token").doesNotExist())
                 .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void givenUsers_whenGetUsersPage_thenReturnPageAndCursor() throws Exception {
+        // given
+        UserSummary user = new UserSummary(42L, "firstname@lastname", UserStatus.OFFLINE, null, now, 0L);
+
+        given(userService.getUsersAfter(10L, 1)).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users")
+                .param("after", "10")
+                .param("limit", "1")
+                .contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "42"))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(user.getId().intValue())))
+                .andExpect(jsonPath("$[0].username", is(user.getUsername())));
+    }
+
+    @Test
+    public void givenUsers_whenGetUsersByIds_thenReturnThoseUsers() throws Exception {
+        UserSummary first = new UserSummary(3L, "third", UserStatus.OFFLINE, null, now, 0L);
+        UserSummary second = new UserSummary(1L, "first", UserStatus.ONLINE, null, now, 2L);
+
+        given(userService.getUsersByIds(List.of(3L, 1L, 99L))).willReturn(List.of(first, second));
+
+        mockMvc.perform(get("/users").param("ids", "3,1,99"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", is(3)))
+                .andExpect(jsonPath("$[1].id", is(1)));
+
+        mockMvc.perform(get("/users").param("ids", "3,x")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void onlineUsers_whenGetOnline_thenReturnPageAndCount() throws Exception {
+        // given
+        UserSummary user = new UserSummary(7L, "firstname@lastname", UserStatus.ONLINE, null, now, 1L);
+
+        given(userService.getOnlineUsersAfter(null, null)).willReturn(Collections.singletonList(user));
+        given(userService.countOnlineUsers()).willReturn(1);
+
+        // then
+        mockMvc.perform(get("/users/online")).andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "7"))
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].status", is("ONLINE")));
+
+        mockMvc.perform(get("/users/online/count")).andExpect(status().isOk())
+                .andExpect(content().string("1"));
+    }
+
+    @Test
+    public void givenUsers_whenSearchByPrefix_thenReturnMatches() throws Exception {
+        UserSummary user = new UserSummary(1L, "testUsername", UserStatus.OFFLINE, birthday, now, 0L);
+        given(userService.searchUsers("test", 5)).willReturn(Collections.singletonList(user));
+
+        mockMvc.perform(get("/users/search").param("prefix", "test").param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[0].username", is("testUsername")));
+    }
+
     @Test
     public void loggedInUser_whenPutLogin_thenReturnJsonArray() throws Exception {
         // given
@@ -98,7 +176,7 @@ public class UserControllerTest {
         user.setPassword("password123");
         user.setUsername("testUsername");
         user.setToken("lsker3-3wjls-fancyToken-slkdjf-3rwo8");
-        user.setBirthday("00.00.0000");
+        user.setBirthday(birthday);
         user.setStatus(UserStatus.OFFLINE);
         user.setCreationDate(now);
 
@@ -122,14 +200,30 @@ public class UserControllerTest {
         mockMvc.perform(putRequest).andExpect(status().isOk())
                 .andExpect(jsonPath("$.id", is(user.getId().intValue())))
                 .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.password", is(user.getPassword())))
-                .andExpect(jsonPath("$.birthday", is(user.getBirthday())))
-                .andExpect(jsonPath("$.creationDate", is(user.getCreationDate())))
+                .andExpect(jsonPath("$.password").doesNotExist())
+                .andExpect(jsonPath("$.birthday", is("07.03.1995")))
+                .andExpect(jsonPath("$.creationDate", is(DateCodec.INSTANCE.format(now))))
                 .andExpect(jsonPath("$.token", is(user.getToken())))
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
          */
     }
 
+    @Test
+    public void tooManyAttempts_whenPutLogin_thenTooManyRequests() throws Exception {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("password123");
+
+        given(loginRateLimiter.tryAcquire(Mockito.eq("testUsername"), Mockito.any())).willReturn(1_500_000_000L);
+
+        MockHttpServletRequestBuilder putRequest = put("/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO));
+
+        mockMvc.perform(putRequest).andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+
+        Mockito.verifyNoInteractions(userService);
+    }
+
     @Test
     public void createUser_validInput_userCreated() throws Exception {
         // given
@@ -138,7 +232,7 @@ public class UserControllerTest {
         user.setPassword("password123");
         user.setUsername("testUsername");
         user.setToken("lsker3-3wjls-fancyToken-slkdjf-3rwo8");
-        user.setBirthday("00.00.0000");
+        user.setBirthday(birthday);
         user.setStatus(UserStatus.OFFLINE);
         user.setCreationDate(now);
 
@@ -157,24 +251,44 @@ public class UserControllerTest {
         mockMvc.perform(postRequest).andExpect(status().isCreated())
                 .andExpect(jsonPath("$.id", is(user.getId().intValue())))
                 .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.password", is(user.getPassword())))
-                .andExpect(jsonPath("$.birthday", is(user.getBirthday())))
-                .andExpect(jsonPath("$.creationDate", is(user.getCreationDate())))
-                .andExpect(jsonPath("$.token", is(user.getToken())))
+                .andExpect(jsonPath("$.password").doesNotExist())
+                .andExpect(jsonPath("$.birthday", is("07.03.1995")))
+                .andExpect(jsonPath("$.creationDate", is(DateCodec.INSTANCE.format(now))))
+                .andExpect(jsonPath("$.token").doesNotExist())
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void importUsers_ndjson_returnsReport() throws Exception {
+        // given
+        UserImportReport report = new UserImportReport(10);
+        given(userImportService.importUsers(Mockito.any())).willAnswer(invocation -> {
+            // consume the parsed users like the real service does
+            Iterator<User> users = invocation.getArgument(0);
+            int count = 0;
+            while (users.hasNext()) {
+                users.next();
+                count++;
+            }
+            assertEquals(2, count);
+            return report;
+        });
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/import")
+                .contentType("application/x-ndjson")
+                .content("{\"username\":\"user1\",\"password\":\"pw1\"}\n{\"username\":\"user2\",\"password\":\"pw2\"}\n");
+
+        // then
+        mockMvc.perform(postRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$.created", is(0)))
+                .andExpect(jsonPath("$.conflicts", hasSize(0)));
+    }
+
     @Test
     public void userProfiles_whenGetProfile_returnUserProfile() throws Exception {
         // given
-        User user = new User();
-        user.setId(0L);
-        user.setPassword("password123");
-        user.setUsername("testUsername");
-        user.setToken("lsker3-3wjls-fancyToken-slkdjf-3rwo8");
-        user.setBirthday("00.00.0000");
-        user.setStatus(UserStatus.OFFLINE);
-        user.setCreationDate(now);
+        UserSummary user = new UserSummary(0L, "testUsername", UserStatus.OFFLINE, birthday, now, 0L);
 
         given(userService.getUserById(user.getId())).willReturn(user);
 
@@ -185,13 +299,95 @@ public class UserControllerTest {
         mockMvc.perform(getRequest).andExpect(status().isOk())
                 .andExpect(jsonPath("$.id", is(user.getId().intValue())))
                 .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.password", is(user.getPassword())))
-                .andExpect(jsonPath("$.birthday", is(user.getBirthday())))
-                .andExpect(jsonPath("$.creationDate", is(user.getCreationDate())))
-                .andExpect(jsonPath("$.token", is(user.getToken())))
+                .andExpect(jsonPath("$.password").doesNotExist())
+                .andExpect(jsonPath("$.birthday", is("07.03.1995")))
+                .andExpect(jsonPath("$.creationDate", is(DateCodec.INSTANCE.format(now))))
+                .andExpect(jsonPath("$.token").doesNotExist())
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void userProfiles_whenGetProfileWithETag_returnNotModified() throws Exception {
+        // given
+        UserSummary user = new UserSummary(5L, "testUsername", UserStatus.OFFLINE, null, now, 3L);
+
+        given(userService.getUserById(user.getId())).willReturn(user);
+
+        // the first request loads the user and hands out its ETag
+        mockMvc.perform(get("/users/{userId}", 5)).andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-3\""));
+
+        // the repeat read is answered from the remembered version
+        mockMvc.perform(get("/users/{userId}", 5).header(HttpHeaders.IF_NONE_MATCH, "\"5-3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        Mockito.verify(userService, Mockito.times(1)).getUserById(5L);
+    }
+
+    @Test
+    public void givenUsers_whenGetUsersWithETag_returnNotModified() throws Exception {
+        MvcResult result = mockMvc.perform(get("/users")).andExpect(status().isOk()).andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        Mockito.verify(userService, Mockito.times(1)).getUsers();
+    }
+
+    @Test
+    public void givenUsers_whenGetUsersWithFields_thenReturnOnlyThoseFields() throws Exception {
+        UserSummary user = new UserSummary(1L, "testUsername", UserStatus.ONLINE, birthday, now, 0L);
+        given(userService.getUsers()).willReturn(Collections.singletonList(user));
+
+        mockMvc.perform(get("/users").param("fields", "id,username"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[0].username", is("testUsername")))
+                .andExpect(jsonPath("$[0].status").doesNotExist())
+                .andExpect(jsonPath("$[0].token").doesNotExist())
+                .andExpect(jsonPath("$[0].birthday").doesNotExist());
+
+        mockMvc.perform(get("/users").param("fields", "id,password"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void userProfiles_whenGetProfileAsCbor_returnCborWithOwnETag() throws Exception {
+        UserSummary user = new UserSummary(5L, "testUsername", UserStatus.OFFLINE, birthday, now, 3L);
+        given(userService.getUserById(user.getId())).willReturn(user);
+
+        MvcResult result = mockMvc.perform(get("/users/{userId}", 5).param("fields", "id,username")
+                .accept(UserController.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(UserController.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-3-cbor\""))
+                .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+                .andReturn();
+
+        JsonNode body = new ObjectMapper(new CBORFactory()).readTree(result.getResponse().getContentAsByteArray());
+        assertEquals(5L, body.get("id").asLong());
+        assertEquals("testUsername", body.get("username").asText());
+        assertFalse(body.has("status"));
+
+        // the JSON copy of the same version does not match the CBOR one
+        mockMvc.perform(get("/users/{userId}", 5).header(HttpHeaders.IF_NONE_MATCH, "\"5-3-cbor\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-3\""));
+    }
+
+    @Test
+    public void loggedInUser_whenPutHeartbeat_thenNoContent() throws Exception {
+        UserTokenDTO userTokenDTO = new UserTokenDTO();
+        userTokenDTO.setToken("lsker3-3wjls-fancyToken-slkdjf-3rwo8");
+
+        mockMvc.perform(put("/heartbeat").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userTokenDTO)))
+                .andExpect(status().isNoContent());
+
+        Mockito.verify(userService).heartbeat(Mockito.argThat(user -> userTokenDTO.getToken().equals(user.getToken())));
+    }
+
     /**
      * Helper Method to convert userPostDTO into a JSON string such that the input can be processed
      * Input will look like this: {"password": "Test User", "username": "testUsername"}
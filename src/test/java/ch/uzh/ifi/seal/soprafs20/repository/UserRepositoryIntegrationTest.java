@@ -7,9 +7,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -24,42 +27,10 @@ public class UserRepositoryIntegrationTest {
     @Autowired
     private UserRepository userRepository;
 
-    @Test
-    public void findByPassword_success() {
-        // get current date
-        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
-        Date date = new Date();
-        String now = formatter.format(date);
-
-        // given
-        User user = new User();
-        user.setPassword("difficultPassword");
-        user.setUsername("firstname@lastname");
-        user.setStatus(UserStatus.OFFLINE);
-        user.setCreationDate(now);
-        user.setToken("1");
-
-        entityManager.persist(user);
-        entityManager.flush();
-
-        // when
-        User found = userRepository.findByPassword(user.getPassword());
-
-        // then
-        assertNotNull(found.getId());
-        assertEquals(found.getPassword(), user.getPassword());
-        assertEquals(found.getUsername(), user.getUsername());
-        assertEquals(found.getToken(), user.getToken());
-        assertEquals(found.getStatus(), user.getStatus());
-        assertEquals(found.getCreationDate(), user.getCreationDate());
-    }
-
     @Test
     public void findByUsername_success() {
         // get current date
-        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
-        Date date = new Date();
-        String now = formatter.format(date);
+        LocalDate now = LocalDate.now();
 
         // given
         User user = new User();
@@ -87,9 +58,7 @@ public class UserRepositoryIntegrationTest {
     @Test
     public void findByToken() {
         // get current date
-        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
-        Date date = new Date();
-        String now = formatter.format(date);
+        LocalDate now = LocalDate.now();
 
         // given
         User user = new User();
@@ -114,5 +83,24 @@ public class UserRepositoryIntegrationTest {
         assertEquals(found.getCreationDate(), user.getCreationDate());
     }
 
+    @Test
+    public void findSummariesByUsernameLike_prefixIgnoringCase() {
+        for (String username : new String[] {"Anna", "andy", "an_x", "bob"}) {
+            User user = new User();
+            user.setPassword("difficultPassword");
+            user.setUsername(username);
+            user.setStatus(UserStatus.OFFLINE);
+            user.setCreationDate(LocalDate.now());
+            entityManager.persist(user);
+        }
+        entityManager.flush();
+
+        List<UserSummary> found = userRepository.findSummariesByUsernameLike("an%", PageRequest.of(0, 10));
+        // the escaped underscore only matches itself
+        List<UserSummary> escaped = userRepository.findSummariesByUsernameLike("an\\_%", PageRequest.of(0, 10));
 
+        assertEquals(Arrays.asList("an_x", "andy", "Anna"), found.stream().map(UserSummary::getUsername).collect(Collectors.toList()));
+        assertEquals(1, escaped.size());
+        assertEquals("an_x", escaped.get(0).getUsername());
+    }
 }
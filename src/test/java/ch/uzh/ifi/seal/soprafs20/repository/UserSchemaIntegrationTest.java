@@ -0,0 +1,43 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * UserSchemaIntegrationTest
+ * Starts the application with the prod profile (against an in-memory database instead of the file),
+ * so the Flyway migrations run and Hibernate validates them against the entities.
+ */
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:schematest;DB_CLOSE_DELAY=-1")
+@ActiveProfiles("prod")
+public class UserSchemaIntegrationTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void migration_createsIndexesOfTheFinders() {
+        List<String> indexedColumns = jdbcTemplate.queryForList(
+                "select COLUMN_NAME from INFORMATION_SCHEMA.INDEXES where TABLE_NAME = 'USER'", String.class);
+
+        assertTrue(indexedColumns.contains("USERNAME"));
+        assertTrue(indexedColumns.contains("TOKEN"));
+        assertTrue(indexedColumns.contains("STATUS"));
+    }
+
+    @Test
+    public void migration_sequenceMatchesAllocationSize() {
+        Long increment = jdbcTemplate.queryForObject(
+                "select INCREMENT from INFORMATION_SCHEMA.SEQUENCES where SEQUENCE_NAME = 'USER_SEQUENCE'", Long.class);
+
+        assertEquals(50L, increment);
+    }
+}
@@ -2,13 +2,18 @@ package ch.uzh.ifi.seal.soprafs20.rest.mapper;
 
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserEditDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserLoginDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserTokenDTO;
 import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * DTOMapperTest
@@ -44,11 +49,67 @@ public class DTOMapperTest {
 
         // check content
         assertEquals(user.getId(), userGetDTO.getId());
-        assertEquals(user.getPassword(), userGetDTO.getPassword());
         assertEquals(user.getUsername(), userGetDTO.getUsername());
         assertEquals(user.getStatus(), userGetDTO.getStatus());
     }
 
+    @Test
+    public void testLogin_fromUser_toUserLoginDTO_withToken() {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.ONLINE);
+        user.setToken("1");
+
+        UserLoginDTO userLoginDTO = DTOMapper.INSTANCE.convertEntityToUserLoginDTO(user);
+
+        assertEquals(user.getId(), userLoginDTO.getId());
+        assertEquals(user.getUsername(), userLoginDTO.getUsername());
+        assertEquals(user.getStatus(), userLoginDTO.getStatus());
+        assertEquals(user.getToken(), userLoginDTO.getToken());
+    }
+
+    @Test
+    public void testGetUser_fromUserSummary_toUserGetDTO_success() {
+        // create UserSummary
+        UserSummary userSummary = new UserSummary(1L, "firstname@lastname", UserStatus.ONLINE,
+                LocalDate.of(2020, 3, 7), LocalDate.of(2020, 3, 1), 2L);
+
+        // MAP -> Create UserGetDTO
+        UserGetDTO userGetDTO = DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(userSummary);
+
+        // check content
+        assertEquals(userSummary.getId(), userGetDTO.getId());
+        assertEquals(userSummary.getUsername(), userGetDTO.getUsername());
+        assertEquals(userSummary.getStatus(), userGetDTO.getStatus());
+        assertEquals("07.03.2020", userGetDTO.getBirthday());
+        assertEquals("01.03.2020", userGetDTO.getCreationDate());
+    }
+
+    @Test
+    public void testGetUser_fromUserSummary_withFieldSelection_onlySelectedFields() {
+        UserSummary userSummary = new UserSummary(1L, "firstname@lastname", UserStatus.ONLINE,
+                LocalDate.of(2020, 3, 7), LocalDate.of(2020, 3, 1), 2L);
+
+        // MAP -> Create UserGetDTO with id and birthday only
+        UserGetDTO userGetDTO = DTOMapper.INSTANCE.convertUserSummaryToUserGetDTO(userSummary,
+                FieldSelection.parse("id, birthday"));
+
+        // check content
+        assertEquals(userSummary.getId(), userGetDTO.getId());
+        assertEquals("07.03.2020", userGetDTO.getBirthday());
+        assertNull(userGetDTO.getUsername());
+        assertNull(userGetDTO.getStatus());
+        assertNull(userGetDTO.getCreationDate());
+    }
+
+    @Test
+    public void fieldSelection_unknownField_throwsBadRequest() {
+        assertSame(FieldSelection.ALL, FieldSelection.parse(null));
+        assertThrows(ResponseStatusException.class, () -> FieldSelection.parse("id,password"));
+        assertThrows(ResponseStatusException.class, () -> FieldSelection.parse("id,token"));
+    }
+
     @Test
     public void convertUserTokenDTOtoEntity_success() {
         // create User
@@ -67,7 +128,7 @@ public class DTOMapperTest {
         // create UserEditDTO
         UserEditDTO userEditDTO = new UserEditDTO();
         userEditDTO.setId(1L);
-        userEditDTO.setBirthday("00.00.0000");
+        userEditDTO.setBirthday("2020-03-07");
         userEditDTO.setUsername("newUsername");
 
         // MAP -> Create User
@@ -76,6 +137,6 @@ public class DTOMapperTest {
         // check content
         assertEquals(user.getId(), userEditDTO.getId());
         assertEquals(user.getUsername(), userEditDTO.getUsername());
-        assertEquals(user.getBirthday(), userEditDTO.getBirthday());
+        assertEquals(LocalDate.of(2020, 3, 7), user.getBirthday());
     }
 }
@@ -0,0 +1,41 @@
+package ch.uzh.ifi.seal.soprafs20.rest.mapper;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DateCodecTest
+ * Tests if both wire formats are parsed and dates are written in the dd.MM.yyyy format.
+ */
+public class DateCodecTest {
+
+    private final DateCodec dateCodec = new DateCodec();
+
+    @Test
+    public void parse_isoAndDottedFormat_success() {
+        assertEquals(LocalDate.of(2020, 3, 7), dateCodec.parse("2020-03-07"));
+        assertEquals(LocalDate.of(2020, 3, 7), dateCodec.parse("07.03.2020"));
+        assertNull(dateCodec.parse(null));
+    }
+
+    @Test
+    public void format_date_success() {
+        assertEquals("07.03.2020", dateCodec.format(LocalDate.of(2020, 3, 7)));
+        assertEquals("2020-03-07", dateCodec.formatIso(LocalDate.of(2020, 3, 7)));
+        assertNull(dateCodec.format(null));
+    }
+
+    @Test
+    public void parse_invalidDate_throwsBadRequest() {
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> dateCodec.parse("00.00.0000"));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+
+        assertThrows(ResponseStatusException.class, () -> dateCodec.parse("2020/03/07"));
+        assertThrows(ResponseStatusException.class, () -> dateCodec.parse("2020-0a-07"));
+    }
+}
@@ -0,0 +1,23 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatabaseConcurrencyLimiterTest {
+
+    @Test
+    public void acquire_allPermitsTaken_rejectsAfterMaxWait() throws InterruptedException {
+        DatabaseConcurrencyLimiter limiter = new DatabaseConcurrencyLimiter(2, 10);
+
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertEquals(2, limiter.getActiveCount());
+
+        assertFalse(limiter.acquire());
+        assertEquals(1, limiter.getRejectedCount());
+
+        limiter.release();
+        assertTrue(limiter.acquire());
+    }
+}
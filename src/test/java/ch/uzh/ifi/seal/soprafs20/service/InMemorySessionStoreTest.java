@@ -0,0 +1,90 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemorySessionStoreTest {
+
+    private final InMemorySessionStore sessionStore = new InMemorySessionStore(0);
+
+    @AfterEach
+    public void shutdown() {
+        sessionStore.shutdown();
+    }
+
+    @Test
+    public void open_userAlreadyLoggedIn_returnsFalse() {
+        assertTrue(sessionStore.open(1L, "token1"));
+        assertFalse(sessionStore.open(1L, "token2"));
+
+        assertEquals(1L, sessionStore.findUserId("token1"));
+        assertNull(sessionStore.findUserId("token2"));
+        assertEquals(1, sessionStore.size());
+    }
+
+    @Test
+    public void close_onlyTheCurrentToken() {
+        sessionStore.open(1L, "token1");
+
+        assertFalse(sessionStore.close(1L, "otherToken"));
+        assertTrue(sessionStore.close(1L, "token1"));
+
+        assertNull(sessionStore.findUserId("token1"));
+        // logged out, the user can log in again
+        assertTrue(sessionStore.open(1L, "token2"));
+    }
+
+    @Test
+    public void publish_reachesOtherNodesOnly_closeReachesAll() throws InterruptedException {
+        RecordingListener node1 = new RecordingListener(1);
+        RecordingListener node2 = new RecordingListener(2);
+        sessionStore.subscribe("node1", node1);
+        sessionStore.subscribe("node2", node2);
+
+        sessionStore.publish("node1", new UserEvent(UserEvent.Type.STATUS, 1L, "user", UserStatus.ONLINE, null));
+        sessionStore.open(1L, "token1");
+        sessionStore.close(1L, "token1");
+
+        assertTrue(node1.received.await(5, TimeUnit.SECONDS));
+        assertTrue(node2.received.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("closed 1"), node1.messages);
+        // in the order they were sent
+        assertEquals(List.of("changed 1", "closed 1"), node2.messages);
+    }
+
+    @Test
+    public void subscribe_sameNodeTwice_throwsException() {
+        sessionStore.subscribe("node1", new RecordingListener(0));
+
+        assertThrows(IllegalStateException.class, () -> sessionStore.subscribe("node1", new RecordingListener(0)));
+    }
+
+    private static final class RecordingListener implements SessionStore.Listener {
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private final CountDownLatch received;
+
+        private RecordingListener(int expectedMessages) {
+            this.received = new CountDownLatch(expectedMessages);
+        }
+
+        @Override
+        public void sessionClosed(Long userId, String token) {
+            messages.add("closed " + userId);
+            received.countDown();
+        }
+
+        @Override
+        public void userChanged(UserEvent userEvent) {
+            messages.add("changed " + userEvent.getUserId());
+            received.countDown();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void tryAcquire_usernameExhausted_rejectsUntilRefilled() {
+        LoginRateLimiter limiter = new LoginRateLimiter(3, 10, 100, 1, 1000);
+        long now = 0;
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("user1", "client" + i, now));
+        }
+        assertEquals(10 * SECOND, limiter.tryAcquire("user1", "client4", now));
+        // other usernames have their own bucket
+        assertEquals(0, limiter.tryAcquire("user2", "client4", now));
+
+        assertEquals(0, limiter.tryAcquire("user1", "client5", now + 10 * SECOND));
+        assertEquals(1, limiter.getUsernameRejectedCount());
+    }
+
+    @Test
+    public void tryAcquire_clientExhausted_rejectsEveryUsername() {
+        LoginRateLimiter limiter = new LoginRateLimiter(10, 10, 2, 5, 1000);
+        long now = 0;
+
+        assertEquals(0, limiter.tryAcquire("user1", "client", now));
+        assertEquals(0, limiter.tryAcquire("user2", "client", now));
+        assertTrue(limiter.tryAcquire("user3", "client", now) > 0);
+        assertEquals(0, limiter.tryAcquire("user3", "otherClient", now));
+
+        assertEquals(1, limiter.getClientRejectedCount());
+        assertEquals(0, limiter.getUsernameRejectedCount());
+    }
+
+    @Test
+    public void tryAcquire_manyKeys_staysBounded() {
+        LoginRateLimiter limiter = new LoginRateLimiter(5, 10, 5, 10, 100);
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire("user" + i, "client" + i, 0);
+        }
+
+        assertTrue(limiter.size() <= 2 * 101);
+    }
+
+    @Test
+    public void tryAcquire_tooManyKeys_dropsTheFullestBucketsFirst() {
+        LoginRateLimiter limiter = new LoginRateLimiter(2, 10, 1000, 1, 10);
+
+        // user0 has used up its bucket, the others have taken one token each
+        limiter.tryAcquire("user0", "client", 0);
+        limiter.tryAcquire("user0", "client", 0);
+        for (int i = 1; i <= 10; i++) {
+            limiter.tryAcquire("user" + i, "client", 0);
+        }
+
+        // down to 90% of max-keys, the exhausted bucket is still there
+        assertTrue(limiter.size() <= 9 + 1);
+        assertTrue(limiter.tryAcquire("user0", "client", 0) > 0);
+    }
+}
@@ -0,0 +1,61 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+    private final PasswordHasher passwordHasher = new PasswordHasher(1000, 1, 16, 5000, 10, 60);
+
+    @AfterEach
+    public void shutdown() {
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    public void hash_samePassword_differentSalt() {
+        String first = passwordHasher.hash("password123");
+        String second = passwordHasher.hash("password123");
+
+        assertNotEquals(first, second);
+        assertTrue(passwordHasher.matches("password123", first));
+        assertTrue(passwordHasher.matches("password123", second));
+    }
+
+    @Test
+    public void matches_wrongPassword_returnsFalse() {
+        String hash = passwordHasher.hash("password123");
+
+        assertFalse(passwordHasher.matches("wrongPW", hash));
+        assertFalse(passwordHasher.matches(null, hash));
+        assertFalse(passwordHasher.matches("password123", null));
+    }
+
+    @Test
+    public void needsRehash_differentCostOrPlaintext_returnsTrue() {
+        PasswordHasher cheaperHasher = new PasswordHasher(500, 1, 16, 5000, 0, 0);
+        String cheapHash = cheaperHasher.hash("password123");
+        cheaperHasher.shutdown();
+
+        assertTrue(passwordHasher.matches("password123", cheapHash));
+        assertTrue(passwordHasher.needsRehash(cheapHash));
+        assertTrue(passwordHasher.needsRehash("password123"));
+        assertFalse(passwordHasher.needsRehash(passwordHasher.hash("password123")));
+    }
+
+    @Test
+    public void hash_takesLongerThanMaxWait_serviceUnavailable() {
+        PasswordHasher slowHasher = new PasswordHasher(1_000_000, 1, 16, 1, 0, 0);
+        try {
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> slowHasher.hash("password123"));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        }
+        finally {
+            slowHasher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceBroadcasterTest {
+
+    /**
+     * records what would have been sent to the client
+     */
+    private static class RecordingSink implements PresenceBroadcaster.PresenceSink {
+        private final List<String> names = new ArrayList<>();
+        private final List<String> ids = new ArrayList<>();
+        private boolean completed;
+
+        @Override
+        public void send(String name, String id, Object data) {
+            names.add(name);
+            ids.add(id);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+
+    // events are dispatched on the calling thread
+    private final PresenceBroadcaster presenceBroadcaster = new PresenceBroadcaster(3, 2, 1000, Runnable::run);
+
+    private static UserEvent statusEvent(long userId, UserStatus status) {
+        return new UserEvent(UserEvent.Type.STATUS, userId, "user" + userId, status, null);
+    }
+
+    @Test
+    public void onUserEvent_subscriber_receivesEventsInOrder() {
+        RecordingSink sink = new RecordingSink();
+        presenceBroadcaster.subscribe(null, sink);
+
+        presenceBroadcaster.onUserEvent(statusEvent(1, UserStatus.ONLINE));
+        presenceBroadcaster.onUserEvent(statusEvent(1, UserStatus.OFFLINE));
+
+        assertEquals(List.of(presenceBroadcaster.eventId(1), presenceBroadcaster.eventId(2)), sink.ids);
+        assertEquals(List.of("presence", "presence"), sink.names);
+    }
+
+    @Test
+    public void subscribe_withLastSequence_replaysMissedEvents() {
+        presenceBroadcaster.onUserEvent(statusEvent(1, UserStatus.ONLINE));
+        presenceBroadcaster.onUserEvent(statusEvent(2, UserStatus.ONLINE));
+        presenceBroadcaster.onUserEvent(statusEvent(3, UserStatus.ONLINE));
+
+        RecordingSink sink = new RecordingSink();
+        presenceBroadcaster.subscribe(presenceBroadcaster.eventId(1), sink);
+
+        assertEquals(List.of(presenceBroadcaster.eventId(2), presenceBroadcaster.eventId(3)), sink.ids);
+    }
+
+    @Test
+    public void subscribe_idOfAnotherRun_sendsReset() {
+        presenceBroadcaster.onUserEvent(statusEvent(1, UserStatus.ONLINE));
+        presenceBroadcaster.onUserEvent(statusEvent(2, UserStatus.ONLINE));
+
+        // same sequence number, but handed out before a restart or by another node
+        PresenceBroadcaster otherRun = new PresenceBroadcaster(3, 2, 1000, Runnable::run);
+        RecordingSink sink = new RecordingSink();
+        presenceBroadcaster.subscribe(otherRun.eventId(1), sink);
+
+        assertEquals(List.of("reset"), sink.names);
+        assertEquals(List.of(presenceBroadcaster.eventId(2)), sink.ids);
+
+        RecordingSink garbled = new RecordingSink();
+        presenceBroadcaster.subscribe("1", garbled);
+        assertEquals(List.of("reset"), garbled.names);
+    }
+
+    @Test
+    public void subscribe_gapTooLarge_sendsReset() {
+        for (long userId = 1; userId <= 5; userId++) {
+            presenceBroadcaster.onUserEvent(statusEvent(userId, UserStatus.ONLINE));
+        }
+
+        // events 1 and 2 have already been dropped from the history
+        RecordingSink sink = new RecordingSink();
+        presenceBroadcaster.subscribe(presenceBroadcaster.eventId(0), sink);
+
+        assertEquals(List.of("reset"), sink.names);
+        assertEquals(List.of(presenceBroadcaster.eventId(5)), sink.ids);
+    }
+
+    @Test
+    public void onUserEvent_slowSubscriber_isDisconnectedWithOverflow() {
+        // a sink that never gets to send keeps the buffer full
+        List<Runnable> pendingDrains = new ArrayList<>();
+        PresenceBroadcaster broadcaster = new PresenceBroadcaster(10, 2, 1000, pendingDrains::add);
+        RecordingSink sink = new RecordingSink();
+        broadcaster.subscribe(null, sink);
+
+        broadcaster.onUserEvent(statusEvent(1, UserStatus.ONLINE));
+        broadcaster.onUserEvent(statusEvent(2, UserStatus.ONLINE));
+        broadcaster.onUserEvent(statusEvent(3, UserStatus.ONLINE));
+        assertEquals(0, broadcaster.getSubscriberCount());
+
+        pendingDrains.get(0).run();
+        assertEquals(List.of("presence", "presence", "overflow"), sink.names);
+        assertEquals(broadcaster.eventId(2), sink.ids.get(2));
+        assertTrue(sink.completed);
+    }
+}
@@ -0,0 +1,95 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceRegistryTest {
+
+    private UserRepository userRepository;
+
+    private PresenceRegistry presenceRegistry;
+
+    @BeforeEach
+    public void setup() {
+        userRepository = Mockito.mock(UserRepository.class);
+        presenceRegistry = new PresenceRegistry(userRepository, 4, 2);
+    }
+
+    @Test
+    public void onUserEvent_statusChanges_updateCount() {
+        presenceRegistry.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(1L, UserStatus.ONLINE)));
+        presenceRegistry.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(2L, UserStatus.ONLINE)));
+        // a repeated login must not be counted twice
+        presenceRegistry.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(2L, UserStatus.ONLINE)));
+        presenceRegistry.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(1L, UserStatus.OFFLINE)));
+        // profile changes do not touch the presence
+        presenceRegistry.onUserEvent(UserEvent.of(UserEvent.Type.PROFILE, user(3L, UserStatus.ONLINE)));
+
+        assertEquals(1, presenceRegistry.countOnline());
+        assertFalse(presenceRegistry.isOnline(1L));
+        assertTrue(presenceRegistry.isOnline(2L));
+        assertFalse(presenceRegistry.isOnline(3L));
+    }
+
+    @Test
+    public void getOnlineUserIds_acrossStripes_returnsSortedPages() {
+        for (long id = 1; id <= 20; id++) {
+            presenceRegistry.markOnline(id * 3);
+        }
+
+        assertEquals(Arrays.asList(3L, 6L, 9L, 12L, 15L), presenceRegistry.getOnlineUserIds(0L, 5));
+        assertEquals(Arrays.asList(18L, 21L, 24L), presenceRegistry.getOnlineUserIds(15L, 3));
+        assertEquals(Collections.singletonList(60L), presenceRegistry.getOnlineUserIds(57L, 5));
+        assertTrue(presenceRegistry.getOnlineUserIds(60L, 5).isEmpty());
+    }
+
+    @Test
+    public void reconcile_loadsOnlineUsersPageByPage() {
+        presenceRegistry.markOnline(99L);
+        Mockito.when(userRepository.findIdsByStatusAfter(Mockito.eq(UserStatus.ONLINE), Mockito.eq(0L), Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(4L, 7L));
+        Mockito.when(userRepository.findIdsByStatusAfter(Mockito.eq(UserStatus.ONLINE), Mockito.eq(7L), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(8L));
+
+        presenceRegistry.reconcile();
+
+        // the stale entry is gone, everything that is online in the database is known
+        assertEquals(3, presenceRegistry.countOnline());
+        assertEquals(Arrays.asList(4L, 7L, 8L), presenceRegistry.getOnlineUserIds(0L, 10));
+    }
+
+    @Test
+    public void reconcile_statusChangeDuringScan_isKept() {
+        // user 4 logs out after the first page has been read, the page still has it as online
+        Mockito.when(userRepository.findIdsByStatusAfter(Mockito.eq(UserStatus.ONLINE), Mockito.eq(0L), Mockito.any(Pageable.class)))
+                .thenAnswer(invocation -> {
+                    presenceRegistry.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(4L, UserStatus.OFFLINE)));
+                    return Arrays.asList(4L, 7L);
+                });
+        Mockito.when(userRepository.findIdsByStatusAfter(Mockito.eq(UserStatus.ONLINE), Mockito.eq(7L), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        presenceRegistry.reconcile();
+
+        assertEquals(Collections.singletonList(7L), presenceRegistry.getOnlineUserIds(0L, 10));
+        assertEquals(1, presenceRegistry.countOnline());
+    }
+
+    private static User user(Long id, UserStatus status) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setStatus(status);
+        return user;
+    }
+}
@@ -0,0 +1,65 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionCacheTest {
+
+    @Test
+    public void get_cachedToken_countsHit() {
+        SessionCache sessionCache = new SessionCache(10, 60);
+        sessionCache.put("token", 1L);
+
+        assertEquals(1L, sessionCache.get("token"));
+        assertNull(sessionCache.get("unknownToken"));
+
+        assertEquals(1, sessionCache.getHitCount());
+        assertEquals(1, sessionCache.getMissCount());
+    }
+
+    @Test
+    public void put_exceedsMaxSize_evictsOldestSession() {
+        SessionCache sessionCache = new SessionCache(2, 60);
+        sessionCache.put("first", 1L);
+        sessionCache.put("second", 2L);
+        sessionCache.put("third", 3L);
+
+        assertEquals(2, sessionCache.size());
+        assertNull(sessionCache.get("first"));
+        assertEquals(3L, sessionCache.get("third"));
+        assertEquals(1, sessionCache.getEvictionCount());
+    }
+
+    @Test
+    public void get_expiredSession_returnsNull() {
+        SessionCache sessionCache = new SessionCache(10, 0);
+        sessionCache.put("token", 1L);
+
+        assertNull(sessionCache.get("token"));
+        assertEquals(0, sessionCache.size());
+    }
+
+    @Test
+    public void invalidate_removesSession() {
+        SessionCache sessionCache = new SessionCache(10, 60);
+        sessionCache.put("token", 1L);
+        sessionCache.invalidate("token");
+
+        assertNull(sessionCache.get("token"));
+    }
+
+    @Test
+    public void invalidate_manyLoginsAndLogouts_queueStaysBounded() {
+        SessionCache sessionCache = new SessionCache(10, 60);
+        for (int i = 0; i < 1000; i++) {
+            sessionCache.put("token" + i, 1L);
+            sessionCache.invalidate("token" + i);
+        }
+        sessionCache.put("last", 1L);
+
+        assertTrue(sessionCache.queueLength() <= 20);
+        assertEquals(1L, sessionCache.get("last"));
+        assertEquals(0, sessionCache.getEvictionCount());
+    }
+}
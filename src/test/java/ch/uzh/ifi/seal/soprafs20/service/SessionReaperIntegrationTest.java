@@ -0,0 +1,116 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SessionReaperIntegrationTest
+ * Runs the reaper by hand against the H2 database, the scheduled runs are switched off.
+ * The sessions are aged by moving lastSeen back instead of waiting for the idle TTL.
+ */
+@SpringBootTest(properties = {"users.session.reaper-interval-seconds=0", "users.session.idle-ttl-seconds=600",
+        "users.session.reaper-batch-size=2"})
+public class SessionReaperIntegrationTest {
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private SessionReaper sessionReaper;
+
+    @Autowired
+    private PresenceRegistry presenceRegistry;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    public void setup() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void reap_idleSessions_loggedOut() {
+        // more idle users than fit into one batch
+        User idle1 = login("user1");
+        User idle2 = login("user2");
+        User idle3 = login("user3");
+        User active = login("user4");
+        makeIdle(idle1, idle2, idle3);
+
+        assertEquals(3, sessionReaper.reap());
+
+        for (User idle : new User[] {idle1, idle2, idle3}) {
+            // the bulk UPDATE left no outdated copy in the second-level cache
+            assertFalse(entityManagerFactory.getCache().contains(User.class, idle.getId()));
+            User stored = userRepository.findById(idle.getId()).get();
+            assertEquals(UserStatus.OFFLINE, stored.getStatus());
+            assertNull(stored.getToken());
+            assertFalse(presenceRegistry.isOnline(idle.getId()));
+
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                    () -> userService.heartbeat(tokenOf(idle)));
+            assertEquals("The token is not valid!", exception.getReason());
+        }
+        assertEquals(UserStatus.ONLINE, userRepository.findById(active.getId()).get().getStatus());
+        assertTrue(presenceRegistry.isOnline(active.getId()));
+
+        // nothing left to do
+        assertEquals(0, sessionReaper.reap());
+    }
+
+    @Test
+    public void heartbeat_keepsSessionAlive() {
+        User user = login("user1");
+        makeIdle(user);
+
+        userService.heartbeat(tokenOf(user));
+
+        assertEquals(0, sessionReaper.reap());
+        User stored = userRepository.findById(user.getId()).get();
+        assertEquals(UserStatus.ONLINE, stored.getStatus());
+        assertEquals(user.getToken(), stored.getToken());
+    }
+
+    private User login(String username) {
+        userService.createUser(credentials(username, "password"));
+        return userService.login(credentials(username, "password"));
+    }
+
+    private void makeIdle(User... users) {
+        for (User user : users) {
+            User stored = userRepository.findById(user.getId()).get();
+            stored.setLastSeen(Instant.now().minusSeconds(3600));
+            userRepository.saveAndFlush(stored);
+        }
+    }
+
+    private static User tokenOf(User user) {
+        User tokenHolder = new User();
+        tokenHolder.setToken(user.getToken());
+        return tokenHolder;
+    }
+
+    private static User credentials(String username, String password) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(password);
+        return user;
+    }
+}
@@ -0,0 +1,86 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTokensTest {
+
+    private static final String KEY_1 = "k1:c2VjcmV0LW51bWJlci1vbmUtZm9yLXRoZS10ZXN0cw==";
+    private static final String KEY_2 = "k2:c2VjcmV0LW51bWJlci10d28tZm9yLXRoZS10ZXN0cw==";
+
+    @Test
+    public void issue_signed_verifiesToUserId() {
+        SessionTokens sessionTokens = new SessionTokens("signed", KEY_1, 3600);
+
+        String token = sessionTokens.issue(42L);
+
+        assertTrue(token.startsWith("k1."));
+        assertEquals(42L, sessionTokens.verify(token));
+        // every login gets a token of its own
+        assertNotEquals(token, sessionTokens.issue(42L));
+    }
+
+    @Test
+    public void verify_tamperedOrUnknown_rejected() {
+        SessionTokens sessionTokens = new SessionTokens("signed", KEY_1, 3600);
+        String token = sessionTokens.issue(42L);
+        String[] parts = token.split("\\.");
+
+        // the payload of another user under the original signature
+        String otherPayload = sessionTokens.issue(43L).split("\\.")[1];
+        assertNull(sessionTokens.verify(parts[0] + "." + otherPayload + "." + parts[2]));
+        // a token signed with a key this instance does not know
+        assertNull(new SessionTokens("signed", KEY_2, 3600).verify(token));
+        assertNull(sessionTokens.verify("not-a-token"));
+        assertNull(sessionTokens.verify(null));
+
+        assertEquals(3, sessionTokens.getRejectedCount());
+    }
+
+    @Test
+    public void verify_expired_rejected() {
+        SessionTokens sessionTokens = new SessionTokens("signed", KEY_1, 0);
+
+        assertNull(sessionTokens.verify(sessionTokens.issue(42L)));
+    }
+
+    @Test
+    public void verify_rotatedKey_oldTokensStillValid() {
+        String oldToken = new SessionTokens("signed", KEY_1, 3600).issue(42L);
+
+        SessionTokens rotated = new SessionTokens("signed", KEY_2 + "," + KEY_1, 3600);
+
+        assertEquals(42L, rotated.verify(oldToken));
+        assertTrue(rotated.issue(42L).startsWith("k2."));
+    }
+
+    @Test
+    public void revoke_rejectsTokenAndEarlierOnes_notLaterOnes() {
+        SessionTokens sessionTokens = new SessionTokens("signed", KEY_1, 3600);
+        String earlier = sessionTokens.issue(42L);
+        String loggedOut = sessionTokens.issue(42L);
+        String otherUser = sessionTokens.issue(43L);
+
+        sessionTokens.revoke(loggedOut);
+        String later = sessionTokens.issue(42L);
+
+        assertNull(sessionTokens.verify(loggedOut));
+        assertNull(sessionTokens.verify(earlier));
+        assertEquals(42L, sessionTokens.verify(later));
+        assertEquals(43L, sessionTokens.verify(otherUser));
+        assertEquals(1, sessionTokens.getRevocationCount());
+    }
+
+    @Test
+    public void issue_opaque_isNotVerifiable() {
+        SessionTokens sessionTokens = new SessionTokens("opaque", KEY_1, 3600);
+
+        String token = sessionTokens.issue(42L);
+
+        assertFalse(sessionTokens.isSigned());
+        assertNull(sessionTokens.verify(token));
+        sessionTokens.revoke(token);
+        assertEquals(0, sessionTokens.getRevocationCount());
+    }
+}
@@ -0,0 +1,112 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<Long, String> singleFlight = new SingleFlight<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void load_concurrentCallers_shareOneLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+
+        Future<String> first = executor.submit(() -> singleFlight.load(1L, 0, () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "user1";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        List<Future<String>> others = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            others.add(executor.submit(() -> singleFlight.load(1L, 0, () -> "loaded again")));
+        }
+        // all of them wait for the running load
+        while (singleFlight.getSharedCount() < 10) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals("user1", first.get(5, TimeUnit.SECONDS));
+        for (Future<String> other : others) {
+            assertEquals("user1", other.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, singleFlight.getLoadCount());
+
+        // nothing is kept once the load is done
+        assertEquals("loaded again", singleFlight.load(1L, 0, () -> "loaded again"));
+    }
+
+    @Test
+    public void load_newerGeneration_doesNotJoinOlderLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> old = executor.submit(() -> singleFlight.load(1L, 0, () -> {
+            loading.countDown();
+            await(release);
+            return "before the change";
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        assertEquals("after the change", singleFlight.load(1L, 1, () -> "after the change"));
+        release.countDown();
+        assertEquals("before the change", old.get(5, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.getSharedCount());
+    }
+
+    @Test
+    public void load_loaderFails_waitersFailToo() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> singleFlight.load(1L, 0, () -> {
+            loading.countDown();
+            await(release);
+            throw new IllegalStateException("database down");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<String> waiter = executor.submit(() -> singleFlight.load(1L, 0, () -> "not called"));
+        while (singleFlight.getSharedCount() < 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<String> caller : List.of(first, waiter)) {
+            Exception exception = assertThrows(Exception.class, () -> caller.get(5, TimeUnit.SECONDS));
+            assertTrue(exception.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
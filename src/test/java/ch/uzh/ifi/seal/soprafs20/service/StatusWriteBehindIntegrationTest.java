@@ -0,0 +1,89 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StatusWriteBehindIntegrationTest
+ * Runs login and logout with the write-behind enabled. The scheduled flush is pushed far out,
+ * the test writes the staged changes itself.
+ */
+@SpringBootTest(properties = {"users.write-behind.enabled=true", "users.write-behind.max-staleness-ms=600000"})
+public class StatusWriteBehindIntegrationTest {
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private StatusWriteBehind statusWriteBehind;
+
+    @BeforeEach
+    public void setup() {
+        statusWriteBehind.flush();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void login_stagesStatus_untilFlushed() {
+        Long id = userService.createUser(credentials("user1", "password1")).getId();
+
+        User loggedIn = userService.login(credentials("user1", "password1"));
+
+        // the table is not written yet, but every read already sees the new status
+        assertEquals(UserStatus.OFFLINE, userRepository.findById(id).get().getStatus());
+        assertEquals(UserStatus.ONLINE, userService.getUserById(id).getStatus());
+        assertEquals(loggedIn.getToken(), userService.getUserById(id).getToken());
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.login(credentials("user1", "password1")));
+        assertEquals("Already logged in!", exception.getReason());
+
+        assertEquals(1, statusWriteBehind.flush());
+        User stored = userRepository.findById(id).get();
+        assertEquals(UserStatus.ONLINE, stored.getStatus());
+        assertEquals(loggedIn.getToken(), stored.getToken());
+        assertEquals(0, statusWriteBehind.getStagedCount());
+    }
+
+    @Test
+    public void loginLogout_coalescedBeforeWrite() {
+        Long id = userService.createUser(credentials("user1", "password1")).getId();
+        Long version = userRepository.findById(id).get().getVersion();
+
+        User loggedIn = userService.login(credentials("user1", "password1"));
+        User tokenHolder = new User();
+        tokenHolder.setToken(loggedIn.getToken());
+        userService.logout(tokenHolder);
+
+        // the staged token is gone with the logout
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.logout(tokenHolder));
+        assertEquals("The token is not valid!", exception.getReason());
+
+        statusWriteBehind.flush();
+        User stored = userRepository.findById(id).get();
+        assertEquals(UserStatus.OFFLINE, stored.getStatus());
+        assertNull(stored.getToken());
+        // login and logout cancel each other out, the row was never updated
+        assertEquals(version, stored.getVersion());
+    }
+
+    private static User credentials(String username, String password) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(password);
+        return user;
+    }
+}
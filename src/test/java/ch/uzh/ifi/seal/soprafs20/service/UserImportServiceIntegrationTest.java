@@ -0,0 +1,83 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the bulk import.
+ *
+ * @see UserImportService
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = "users.import.batch-size=3")
+public class UserImportServiceIntegrationTest {
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserImportService userImportService;
+
+    @BeforeEach
+    public void setup() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void importUsers_conflictingRows_areReportedAndSkipped() {
+        User existingUser = new User();
+        existingUser.setUsername("existing");
+        existingUser.setPassword("password");
+        userService.createUser(existingUser);
+
+        List<User> rows = new ArrayList<>();
+        rows.add(newUser("user1", "pw1"));
+        rows.add(newUser("existing", "pw2"));
+        rows.add(newUser("user1", "pw3"));
+        rows.add(newUser("user2", null));
+        rows.add(newUser("user3", "pw5"));
+        rows.add(newUser("user4", "pw6"));
+        rows.add(newUser("user5", "pw7"));
+
+        UserImportReport report = userImportService.importUsers(rows.iterator());
+
+        assertEquals(4, report.getCreated());
+        assertEquals(3, report.getConflicted());
+
+        // rows are numbered from 1, duplicates within a batch and invalid rows are reported before the database check
+        List<Long> conflictingRows = new ArrayList<>();
+        for (UserImportReport.Conflict conflict : report.getConflicts()) {
+            conflictingRows.add(conflict.getRow());
+        }
+        assertEquals(List.of(3L, 4L, 2L), conflictingRows);
+
+        User imported = userRepository.findByUsername("user5");
+        assertEquals(UserStatus.OFFLINE, imported.getStatus());
+        assertNotNull(imported.getCreationDate());
+        assertNotEquals("pw7", imported.getPassword());
+        assertEquals(5, userRepository.count());
+    }
+
+    private static User newUser(String username, String password) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(password);
+        return user;
+    }
+}
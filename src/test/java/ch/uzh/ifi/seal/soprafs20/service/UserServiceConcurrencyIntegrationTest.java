@@ -0,0 +1,109 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UserServiceConcurrencyIntegrationTest
+ * Fires thousands of sign-ups at once, the ones for the same username right after each other so they overlap.
+ * Only the unique constraint of the database keeps the usernames unique: exactly one sign-up per username must
+ * succeed and all others must be rejected with CONFLICT, never with another error.
+ * H2 rejects an insert while a concurrent insert of the same username is still uncommitted, those inserts are
+ * retried, so no username is left free because all of its sign-ups collided.
+ */
+@SpringBootTest(properties = {"users.password.iterations=1000", "users.signup.max-attempts=100"})
+public class UserServiceConcurrencyIntegrationTest {
+
+    private static final int USERNAMES = 100;
+
+    private static final int SIGN_UPS_PER_USERNAME = 20;
+
+    private static final int THREADS = 32;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @BeforeEach
+    public void setup() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void createUser_collidingUsernamesInParallel_exactlyOneSignUpPerUsername() throws InterruptedException {
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < USERNAMES * SIGN_UPS_PER_USERNAME; i++) {
+            usernames.add("racer" + (i / SIGN_UPS_PER_USERNAME));
+        }
+
+        Map<String, AtomicInteger> created = new ConcurrentHashMap<>();
+        LongAdder conflicts = new LongAdder();
+        Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(usernames.size());
+        for (String username : usernames) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    User user = new User();
+                    user.setUsername(username);
+                    user.setPassword("password");
+                    userService.createUser(user);
+                    created.computeIfAbsent(username, key -> new AtomicInteger()).incrementAndGet();
+                }
+                catch (ResponseStatusException e) {
+                    if (e.getStatus() == HttpStatus.CONFLICT) {
+                        conflicts.increment();
+                    }
+                    else {
+                        failures.add(e);
+                    }
+                }
+                catch (Exception e) {
+                    failures.add(e);
+                }
+                finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(2, TimeUnit.MINUTES));
+        executor.shutdown();
+
+        assertEquals(List.of(), new ArrayList<>(failures));
+        assertEquals(USERNAMES, created.size());
+        for (AtomicInteger signUpsOfUsername : created.values()) {
+            assertEquals(1, signUpsOfUsername.get());
+        }
+        assertEquals(USERNAMES * (SIGN_UPS_PER_USERNAME - 1), conflicts.sum());
+        assertEquals(USERNAMES, userRepository.count());
+    }
+}
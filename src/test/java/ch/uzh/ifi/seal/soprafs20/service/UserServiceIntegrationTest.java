@@ -4,14 +4,23 @@ import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.exceptions.SopraServiceException;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -30,6 +39,9 @@ public class UserServiceIntegrationTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     public void setup() {
         userRepository.deleteAll();
@@ -87,12 +99,12 @@ public class UserServiceIntegrationTest {
         user1.setToken("fancyToken");
 
         // when
-        User createdUser1 = userService.createUser(user1);
-        userService.login(createdUser1);
+        userService.createUser(user1);
+        userService.login(credentials("user1", "password123"));
 
         // check that an error is thrown
         String exceptionMessage = "Already logged in!";
-        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.login(user1), exceptionMessage);
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.login(credentials("user1", "password123")), exceptionMessage);
         assertEquals(exceptionMessage, exception.getReason());
     }
 
@@ -113,4 +125,116 @@ public class UserServiceIntegrationTest {
         assertEquals(exceptionMessage, exception.getReason());
 
     }
-}
+
+    @Test
+    public void createUser_storesPasswordHash_loginSucceeds() {
+        User user1 = new User();
+        user1.setUsername("user1");
+        user1.setPassword("password123");
+
+        User createdUser = userService.createUser(user1);
+        assertNotEquals("password123", userRepository.findByUsername("user1").getPassword());
+
+        User loggedInUser = userService.login(credentials("user1", "password123"));
+
+        assertEquals(createdUser.getId(), loggedInUser.getId());
+        assertEquals(UserStatus.ONLINE, loggedInUser.getStatus());
+        assertNotNull(loggedInUser.getToken());
+    }
+
+    @Test
+    public void getUsersAfter_keysetPagination_returnsAllUsersOnce() {
+        for (int i = 0; i < 5; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword("password" + i);
+            userService.createUser(user);
+        }
+
+        // walk through the users with a page size of 2
+        List<UserSummary> firstPage = userService.getUsersAfter(null, 2);
+        List<UserSummary> secondPage = userService.getUsersAfter(firstPage.get(1).getId(), 2);
+        List<UserSummary> lastPage = userService.getUsersAfter(secondPage.get(1).getId(), 2);
+
+        assertEquals(2, firstPage.size());
+        assertEquals(2, secondPage.size());
+        assertEquals(1, lastPage.size());
+        assertTrue(firstPage.get(1).getId() < secondPage.get(0).getId());
+        assertEquals("user4", lastPage.get(0).getUsername());
+    }
+
+    @Test
+    public void streamUsers_visitsEveryUser() {
+        for (int i = 0; i < 3; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword("password" + i);
+            userService.createUser(user);
+        }
+
+        List<String> usernames = new ArrayList<>();
+        userService.streamUsers(user -> {
+            // the page has been read, its transaction (and connection) is already given back
+            assertFalse(TransactionSynchronizationManager.isActualTransactionActive());
+            usernames.add(user.getUsername());
+        });
+
+        assertEquals(List.of("user0", "user1", "user2"), usernames);
+    }
+
+    @Test
+    public void getUserById_returnsSummaryOrNotFound() {
+        User user = new User();
+        user.setUsername("user1");
+        user.setPassword("password1");
+        User createdUser = userService.createUser(user);
+
+        UserSummary found = userService.getUserById(createdUser.getId());
+        assertEquals("user1", found.getUsername());
+        assertEquals(UserStatus.OFFLINE, found.getStatus());
+        assertNotNull(found.getVersion());
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.getUserById(createdUser.getId() + 1000));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+    }
+
+    @Test
+    public void getUserById_servedFromSecondLevelCache_andRefreshedOnEdit() {
+        User user = new User();
+        user.setUsername("user1");
+        user.setPassword("password1");
+        Long id = userService.createUser(user).getId();
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // repeated reads do not load the user from the database
+        userService.getUserById(id);
+        userService.getUserById(id);
+        assertEquals(0, statistics.getEntityLoadCount());
+        assertTrue(statistics.getSecondLevelCacheHitCount() >= 2);
+
+        // the edit replaces the cached copy
+        User userToEdit = new User();
+        userToEdit.setId(id);
+        userToEdit.setUsername("renamedUser1");
+        userService.edit(userToEdit);
+        assertEquals("renamedUser1", userService.getUserById(id).getUsername());
+
+        // and login/logout the cached query result of findByToken
+        User loggedIn = userService.login(credentials("renamedUser1", "password1"));
+        assertEquals(UserStatus.ONLINE, userService.getUserById(id).getStatus());
+        User tokenHolder = new User();
+        tokenHolder.setToken(loggedIn.getToken());
+        userService.logout(tokenHolder);
+        assertEquals(UserStatus.OFFLINE, userService.getUserById(id).getStatus());
+        assertNull(userRepository.findByToken(loggedIn.getToken()));
+    }
+
+    private static User credentials(String username, String password) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(password);
+        return user;
+    }
+}
\ No newline at end of file
@@ -4,14 +4,28 @@ import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.exceptions.SopraServiceException;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UserServiceTest {
@@ -19,6 +33,37 @@ public class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Spy
+    private SessionCache sessionCache = new SessionCache(100, 60);
+
+    @Spy
+    private PasswordHasher passwordHasher = new PasswordHasher(1000, 1, 16, 5000, 0, 0);
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private PresenceRegistry presenceRegistry;
+
+    @Spy
+    private StatusWriteBehind statusWriteBehind = new StatusWriteBehind(null, null, false, 1000, 100);
+
+    @Mock
+    private UsernameIndex usernameIndex;
+
+    @Spy
+    private SessionTokens sessionTokens = new SessionTokens("opaque", "", 86400);
+
+    @Mock
+    private ClusterSessions clusterSessions;
+
+    @Spy
+    private UserVersionTracker userVersionTracker = new UserVersionTracker(100);
+
+    // getTransaction returns null, commit and rollback do nothing, so the TransactionTemplates just run their callbacks
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @InjectMocks
     private UserService userService;
 
@@ -45,12 +90,17 @@ public class UserServiceTest {
 
         // then
         Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(UserEvent.class));
 
         assertEquals(testUser.getId(), createdUser.getId());
         assertEquals(testUser.getPassword(), createdUser.getPassword());
         assertEquals(testUser.getUsername(), createdUser.getUsername());
         assertEquals(testUser.getToken(), createdUser.getToken());
         assertEquals(UserStatus.OFFLINE, createdUser.getStatus());
+
+        // only the hash of the password is stored
+        assertNotEquals("difficultPassword", createdUser.getPassword());
+        assertTrue(passwordHasher.matches("difficultPassword", createdUser.getPassword()));
     }
 
     // Todo: change to no exception was thrown
@@ -61,7 +111,6 @@ public class UserServiceTest {
             userService.createUser(testUser);
 
             // when -> setup additional mocks for UserRepository
-            Mockito.when(userRepository.findByPassword(Mockito.any())).thenReturn(testUser);
             Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(null);
         }
         // if exception thrown => fail the test
@@ -75,19 +124,163 @@ public class UserServiceTest {
         // given -> a first user has already been created
         userService.createUser(testUser);
 
-        // when -> setup additional mocks for UserRepository
-        Mockito.when(userRepository.findByPassword(Mockito.any())).thenReturn(testUser);
-        Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+        // when -> the database rejects the second insert because of the unique constraint on the username
+        Mockito.doThrow(new DataIntegrityViolationException("could not execute statement", new SQLException(
+                "Unique index or primary key violation: \"PUBLIC.UK_USER_USERNAME_INDEX_2 ON PUBLIC.USER(USERNAME)\"")))
+                .when(userRepository).flush();
 
         // then -> attempt to create second user with same user -> check that an error is thrown
         String exceptionMessage = "The username provided is not unique!";
         ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser), exceptionMessage);
         assertEquals(exceptionMessage, exception.getReason());
+        assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+        // no lookup before the insert
+        Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+    }
+
+    @Test
+    public void createUser_otherConstraintViolated_notReportedAsConflict() {
+        Mockito.doThrow(new DataIntegrityViolationException("could not execute statement", new SQLException(
+                "NULL not allowed for column \"USERNAME\"")))
+                .when(userRepository).flush();
+
+        assertThrows(DataIntegrityViolationException.class, () -> userService.createUser(testUser));
+    }
+
+    @Test
+    public void createUser_concurrentInsert_retriedInsteadOfConflict() {
+        ReflectionTestUtils.setField(userService, "signUpAttempts", 3);
+        Mockito.doThrow(new DataIntegrityViolationException("could not execute statement",
+                new SQLException("Concurrent update in table \"USER\"", "90131", 90131)))
+                .doNothing()
+                .when(userRepository).flush();
+
+        User createdUser = userService.createUser(testUser);
+
+        assertEquals(testUser.getUsername(), createdUser.getUsername());
+        Mockito.verify(userRepository, Mockito.times(2)).save(Mockito.any());
+    }
+
+    @Test
+    public void createUser_concurrentInsertEveryTime_serviceUnavailable() {
+        ReflectionTestUtils.setField(userService, "signUpAttempts", 2);
+        Mockito.doThrow(new DataIntegrityViolationException("could not execute statement",
+                new SQLException("Concurrent update in table \"USER\"", "90131", 90131)))
+                .when(userRepository).flush();
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        Mockito.verify(userRepository, Mockito.times(2)).save(Mockito.any());
     }
 
     @Test void editUser_onlyBirthDate() {
 
     }
 
+    @Test
+    public void editUser_unknownId_throwsNotFound() {
+        Mockito.when(userRepository.findById(Mockito.any())).thenReturn(Optional.empty());
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.edit(testUser));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+        Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+    }
 
+    @Test
+    public void searchUsers_indexDisabled_searchesWithEscapedLike() {
+        ReflectionTestUtils.setField(userService, "maxPageSize", 100);
+        Mockito.when(usernameIndex.isEnabled()).thenReturn(false);
+        Mockito.when(userRepository.findSummariesByUsernameLike(Mockito.any(), Mockito.any())).thenReturn(Collections.emptyList());
+
+        userService.searchUsers("Test_%", 5);
+
+        Mockito.verify(userRepository).findSummariesByUsernameLike("test\\_\\%%", PageRequest.of(0, 5));
+        Mockito.verify(usernameIndex, Mockito.never()).search(Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    public void searchUsers_indexEnabled_noDatabaseQuery() {
+        ReflectionTestUtils.setField(userService, "maxPageSize", 100);
+        UserSummary bob = new UserSummary(1L, "bob", UserStatus.ONLINE, null, null, null);
+        Mockito.when(usernameIndex.isEnabled()).thenReturn(true);
+        Mockito.when(usernameIndex.search("bo", 5)).thenReturn(List.of(bob));
+
+        assertEquals(List.of(bob), userService.searchUsers("bo", 5));
+        Mockito.verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void searchUsers_emptyPrefix_throwsBadRequest() {
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.searchUsers(" ", null));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+    }
+
+    @Test
+    public void getOnlineUsersAfter_staleIds_pageIsFilledFromTheNextIds() {
+        ReflectionTestUtils.setField(userService, "maxPageSize", 100);
+        Mockito.when(presenceRegistry.getOnlineUserIds(0L, 2)).thenReturn(List.of(1L, 2L));
+        Mockito.when(presenceRegistry.getOnlineUserIds(2L, 1)).thenReturn(List.of(3L));
+        UserSummary loggedOut = new UserSummary(1L, "first", UserStatus.OFFLINE, null, null, 0L);
+        UserSummary second = new UserSummary(2L, "second", UserStatus.ONLINE, null, null, 0L);
+        UserSummary third = new UserSummary(3L, "third", UserStatus.ONLINE, null, null, 0L);
+        Mockito.when(userRepository.findSummariesByIds(List.of(1L, 2L))).thenReturn(List.of(loggedOut, second));
+        Mockito.when(userRepository.findSummariesByIds(List.of(3L))).thenReturn(List.of(third));
+
+        assertEquals(List.of(second, third), userService.getOnlineUsersAfter(null, 2));
+        Mockito.verify(presenceRegistry).markOffline(1L);
+    }
+
+    @Test
+    public void getUsersByIds_oneQuery_inTheOrderOfTheIds() {
+        ReflectionTestUtils.setField(userService, "maxPageSize", 100);
+        UserSummary first = new UserSummary(1L, "first", UserStatus.OFFLINE, null, null, 0L);
+        UserSummary third = new UserSummary(3L, "third", UserStatus.OFFLINE, null, null, 0L);
+        Mockito.when(userRepository.findSummariesByIds(Mockito.any())).thenReturn(List.of(first, third));
+
+        List<UserSummary> users = userService.getUsersByIds(List.of(3L, 2L, 1L, 3L));
+
+        assertEquals(List.of(third, first), users);
+        Mockito.verify(userRepository).findSummariesByIds(new LinkedHashSet<>(List.of(3L, 2L, 1L)));
+        Mockito.verify(userRepository, Mockito.never()).findById(Mockito.any());
+    }
+
+    @Test
+    public void getUsersByIds_tooManyIds_throwsBadRequest() {
+        ReflectionTestUtils.setField(userService, "maxPageSize", 2);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.getUsersByIds(List.of(1L, 2L, 3L)));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        Mockito.verify(userRepository, Mockito.never()).findSummariesByIds(Mockito.any());
+    }
+
+    @Test
+    public void getUserById_unknownId_throwsNotFound() {
+        Mockito.when(userRepository.findById(Mockito.any())).thenReturn(Optional.empty());
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.getUserById(5L));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+    }
+
+    @Test
+    public void logout_signedToken_acceptedWithoutTokenLookup() {
+        SessionTokens signedTokens = new SessionTokens("signed", "k1:c2VjcmV0LW51bWJlci1vbmUtZm9yLXRoZS10ZXN0cw==", 3600);
+        ReflectionTestUtils.setField(userService, "sessionTokens", signedTokens);
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+
+        User logoutInput = new User();
+        logoutInput.setToken(signedTokens.issue(1L));
+        User loggedOut = userService.logout(logoutInput);
+
+        assertEquals(UserStatus.OFFLINE, loggedOut.getStatus());
+        Mockito.verify(userRepository, Mockito.never()).findByToken(Mockito.any());
+        Mockito.verify(clusterSessions).close(1L, logoutInput.getToken());
+
+        // the revocation alone turns the token away
+        signedTokens.revoke(logoutInput.getToken());
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.heartbeat(logoutInput));
+        assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+    }
 }
@@ -0,0 +1,33 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserVersionTrackerTest {
+
+    private final UserVersionTracker userVersionTracker = new UserVersionTracker(2);
+
+    @Test
+    public void remember_full_evictsLeastRecentlyRead() {
+        userVersionTracker.remember(1L, 0L, userVersionTracker.getCollectionVersion());
+        userVersionTracker.remember(2L, 0L, userVersionTracker.getCollectionVersion());
+        // user 1 is read again, user 2 is now the least recently read
+        assertNotNull(userVersionTracker.getUserETag(1L));
+
+        userVersionTracker.remember(3L, 0L, userVersionTracker.getCollectionVersion());
+
+        assertNotNull(userVersionTracker.getUserETag(1L));
+        assertNull(userVersionTracker.getUserETag(2L));
+        assertNotNull(userVersionTracker.getUserETag(3L));
+    }
+
+    @Test
+    public void remember_changeDuringRead_notKept() {
+        long readStartedAt = userVersionTracker.getCollectionVersion();
+        userVersionTracker.onUserEvent(new UserEvent(UserEvent.Type.PROFILE, 2L, "user2", null, null));
+
+        assertEquals("\"1-4\"", userVersionTracker.remember(1L, 4L, readStartedAt));
+        assertNull(userVersionTracker.getUserETag(1L));
+    }
+}
@@ -0,0 +1,104 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserSummary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameIndexTest {
+
+    private UserRepository userRepository;
+
+    private UsernameIndex usernameIndex;
+
+    @BeforeEach
+    public void setup() {
+        userRepository = Mockito.mock(UserRepository.class);
+        usernameIndex = new UsernameIndex(userRepository, true, 2);
+    }
+
+    @Test
+    public void search_prefix_returnsTopKIgnoringCase() {
+        usernameIndex.put(summary(1L, "bob"));
+        usernameIndex.put(summary(2L, "Bobby"));
+        usernameIndex.put(summary(3L, "alice"));
+        usernameIndex.put(summary(4L, "BOB"));
+        usernameIndex.put(summary(5L, "bo"));
+
+        assertEquals(Arrays.asList(5L, 4L, 1L, 2L), idsOf(usernameIndex.search("Bo", 10)));
+        assertEquals(Arrays.asList(5L, 4L), idsOf(usernameIndex.search("bo", 2)));
+        assertEquals(Arrays.asList(4L, 1L), idsOf(usernameIndex.search("bob", 2)));
+        assertTrue(idsOf(usernameIndex.search("carol", 10)).isEmpty());
+    }
+
+    @Test
+    public void onUserEvent_rename_replacesOldUsername() {
+        usernameIndex.onUserEvent(UserEvent.of(UserEvent.Type.CREATED, user(1L, "bob")));
+        usernameIndex.onUserEvent(UserEvent.of(UserEvent.Type.PROFILE, user(1L, "robert")));
+        // a status change does not add a user the index does not know
+        usernameIndex.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(2L, "bobby")));
+
+        assertTrue(idsOf(usernameIndex.search("bob", 10)).isEmpty());
+        assertEquals(Collections.singletonList(1L), idsOf(usernameIndex.search("rob", 10)));
+        assertEquals(1, usernameIndex.size());
+    }
+
+    @Test
+    public void rebuild_loadsUsernamesPageByPage_keepsNewerNames() {
+        usernameIndex.put(summary(2L, "renamed"));
+        Mockito.when(userRepository.findSummariesAfter(Mockito.eq(0L), Mockito.any(Pageable.class)))
+                .thenReturn(Arrays.asList(summary(1L, "anna"), summary(2L, "old")));
+        Mockito.when(userRepository.findSummariesAfter(Mockito.eq(2L), Mockito.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(summary(3L, "andy")));
+
+        usernameIndex.rebuild();
+
+        assertEquals(Arrays.asList(3L, 1L), idsOf(usernameIndex.search("an", 10)));
+        assertEquals(Collections.singletonList(2L), idsOf(usernameIndex.search("re", 10)));
+        assertTrue(idsOf(usernameIndex.search("old", 10)).isEmpty());
+        assertEquals(3, usernameIndex.size());
+    }
+
+    @Test
+    public void onUserEvent_statusChange_updatesEntry() {
+        usernameIndex.put(new UserSummary(1L, "bob", UserStatus.OFFLINE, null, LocalDate.of(2020, 3, 1), 0L));
+        usernameIndex.onUserEvent(UserEvent.of(UserEvent.Type.STATUS, user(1L, "bob")));
+        usernameIndex.onUserEvent(new UserEvent(UserEvent.Type.STATUS, 1L, "bob", UserStatus.ONLINE, null));
+
+        UserSummary found = usernameIndex.search("b", 10).get(0);
+        assertEquals(UserStatus.ONLINE, found.getStatus());
+        assertEquals(LocalDate.of(2020, 3, 1), found.getCreationDate());
+    }
+
+    private static List<Long> idsOf(List<UserSummary> users) {
+        List<Long> ids = new ArrayList<>();
+        for (UserSummary user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+
+    private static User user(Long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setStatus(UserStatus.OFFLINE);
+        return user;
+    }
+
+    private static UserSummary summary(Long id, String username) {
+        return new UserSummary(id, username, UserStatus.OFFLINE, null, null, 0L);
+    }
+}